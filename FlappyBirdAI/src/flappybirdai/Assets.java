@@ -0,0 +1,262 @@
+package flappybirdai;
+
+import static flappybirdai.Simulation.BIRD_HEIGHT;
+import static flappybirdai.Simulation.BIRD_WIDTH;
+import static flappybirdai.Simulation.HEIGHT;
+import static flappybirdai.Simulation.TUBE_HEIGHT;
+import static flappybirdai.Simulation.TUBE_WIDTH;
+import static flappybirdai.Simulation.WIDTH;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.imageio.ImageIO;
+
+/*
+The images of the game, at the size they are drawn. They are read from the
+classpath, next to the classes, so the game finds them from any directory and
+from the jar, and only once a window asks for them. Decoding and scaling them
+is most of the time taken, so the scaled pixels are kept in a cache directory
+under the user's home, in a file per image named by a hash of the image file,
+the part of it taken and the size it was scaled to: a changed image gets a file
+of its own. A cache that cannot be read or written is ignored.
+*/
+public class Assets {
+
+    //Floor Dimensions
+    public static final int FLOOR_WIDTH = 672;
+    public static final int FLOOR_HEIGHT = 224;
+
+    //Bumped when the way images are scaled changes, to leave old files behind
+    private static final int VERSION = 1;
+    private static final int MAGIC   = 0x46424943;     //"FBIC"
+
+    private static final File CACHE = new File(System.getProperty("user.home"),
+            ".cache" + File.separator + "flappybirdai");
+
+    //Sprites to be used in game (background, ground, tubes) laid out like the
+    //screen, and the three frames of the bird in ARGB, to be recolored
+    public final BufferedImage   back;
+    public final BufferedImage   ground;
+    public final BufferedImage   tube1;
+    public final BufferedImage   tube2;
+    public final BufferedImage[] birds;
+
+    //Images read from the cache and images scaled from their file
+    public int cached;
+    public int scaled;
+
+    private static volatile Assets loaded;
+
+    //The images, or null while they are not read yet
+    public static Assets loaded() {
+        return loaded;
+    }
+
+    //Reads the images, the first time it is called
+    public static synchronized Assets load() {
+        if (loaded == null)
+            loaded = new Assets();
+        return loaded;
+    }
+
+    private Assets() {
+        back = compatible(image("skyline.png", 0, 0, 0, 0, WIDTH, HEIGHT),
+                Transparency.OPAQUE);
+        ground = compatible(image("brick.png", 0, 0, 0, 0, FLOOR_WIDTH,
+                FLOOR_HEIGHT), Transparency.OPAQUE);
+        tube1 = compatible(image("tube1.png", 0, 0, 0, 0, TUBE_WIDTH,
+                TUBE_HEIGHT), Transparency.TRANSLUCENT);
+        tube2 = compatible(image("tube2.png", 0, 0, 0, 0, TUBE_WIDTH,
+                TUBE_HEIGHT), Transparency.TRANSLUCENT);
+
+        //Gets the 3 frame sprite from 'bird.png'
+        birds = new BufferedImage[3];
+        for (int i = 0; i < 3; ++i)
+            birds[i] = image("bird.png", 36 * i, 0, 36, 26, BIRD_WIDTH,
+                    BIRD_HEIGHT);
+    }
+
+    //The part at (x, y) of size w by h of the image file (all of it for a
+    //size of 0) scaled to width by height, from the cache if it is there
+    private BufferedImage image(final String name, final int x, final int y,
+            final int w, final int h, final int width, final int height) {
+        final byte[] source = resource(name);
+        final File file = new File(CACHE, key(source, x, y, w, h, width,
+                height) + ".argb");
+        final int[] pixels = new int[width * height];
+        if (read(file, width, height, pixels))
+            ++cached;
+        else {
+            BufferedImage image;
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(source));
+            } catch (final IOException e) {
+                throw new IllegalStateException("cannot read " + name, e);
+            }
+            if (w > 0)
+                image = image.getSubimage(x, y, w, h);
+            scale(image, width, height).getRaster().getDataElements(0, 0,
+                    width, height, pixels);
+            write(file, width, height, pixels);
+            ++scaled;
+        }
+        final BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+
+    //The bytes of an image file next to this class
+    private static byte[] resource(final String name) {
+        final InputStream in = Assets.class.getResourceAsStream(name);
+        if (in == null)
+            throw new IllegalStateException("image " + name
+                    + " is missing from the classpath");
+        try {
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0)
+                    bytes.write(buffer, 0, read);
+                return bytes.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("cannot read " + name, e);
+        }
+    }
+
+    //Names the cache file by what the pixels in it depend on
+    private static String key(final byte[] source, final int... part) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source);
+            final ByteBuffer numbers = ByteBuffer.allocate(4 * (part.length + 1));
+            numbers.putInt(VERSION);
+            for (final int number : part)
+                numbers.putInt(number);
+            digest.update(numbers.array());
+            final StringBuilder key = new StringBuilder();
+            for (final byte b : digest.digest())
+                key.append(String.format("%02x", b & 0xFF));
+            return key.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Scales the image with the nearest pixel, as the sprites are pixel art
+    private static BufferedImage scale(final BufferedImage image,
+            final int width, final int height) {
+        final BufferedImage scaled = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+
+    //Reads the pixels from a cache file, or returns false if it is missing or
+    //does not hold an image of that size
+    private static boolean read(final File file, final int width,
+            final int height, final int[] pixels) {
+        if (!file.isFile() || file.length() != 16 + 4L * pixels.length)
+            return false;
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ);
+            try {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                if (buffer.remaining() != buffer.capacity()
+                        || buffer.getInt() != MAGIC
+                        || buffer.getInt() != VERSION
+                        || buffer.getInt() != width
+                        || buffer.getInt() != height)
+                    return false;
+                buffer.asIntBuffer().get(pixels);
+                return true;
+            } finally {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    //Writes the pixels to a cache file, through a temporary file so that no
+    //other process reads it half written
+    private static void write(final File file, final int width,
+            final int height, final int[] pixels) {
+        try {
+            Files.createDirectories(CACHE.toPath());
+            final Path temporary = Files.createTempFile(CACHE.toPath(),
+                    "image", ".tmp");
+            try {
+                final ByteBuffer buffer = ByteBuffer.allocate(16 + 4 * pixels.length);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+                buffer.asIntBuffer().put(pixels);
+                buffer.rewind();
+                final FileChannel channel = FileChannel.open(temporary,
+                        StandardOpenOption.WRITE);
+                try {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                } finally {
+                    channel.close();
+                }
+                Files.move(temporary, file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (final IOException e) {
+            //Scaled again next time
+        }
+    }
+
+    //A copy of the image laid out like the screen's, so drawing it needs no
+    //conversion
+    public static BufferedImage compatible(final BufferedImage image,
+            final int transparency) {
+        final BufferedImage copy = compatible(image.getWidth(),
+                image.getHeight(), transparency);
+        final Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    //An empty image laid out like the screen's
+    public static BufferedImage compatible(final int width, final int height,
+            final int transparency) {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        return GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(width, height, transparency);
+    }
+}
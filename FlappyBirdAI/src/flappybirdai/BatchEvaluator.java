@@ -0,0 +1,409 @@
+package flappybirdai;
+
+import static flappybirdai.Pool.INPUTS;
+import static flappybirdai.Pool.OUTPUTS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Evaluates the networks of a whole population in one call per tick. Genomes whose
+compiled networks share the same topology are grouped and laid out as a
+structure of arrays (one lane per genome), so each link is a multiply-add over
+contiguous lanes that the JIT can vectorize. Genomes with a topology of their
+own are evaluated through their own network. The lanes of genomes no longer
+active are dropped once they are half of their group.
+
+In single precision, weights, sums and values are floats: half the bytes per
+lane to stream through, and twice the lanes per vector. The sigmoid is still
+computed in double and rounded. Every genome then gets a group, of one lane
+if need be, and the double path stays the reference to check it against.
+*/
+public class BatchEvaluator {
+
+    //Genomes sharing one topology, evaluated together
+    private interface Lanes {
+        void evaluate(double[] inputs, boolean[] active, boolean[] flaps);
+    }
+
+    //Genomes sharing one topology, with weights and values stored per lane
+    private static class Group implements Lanes {
+        private final int[]    lanes;   //index of each lane's genome in the batch
+        private int            count;   //lanes still evaluated, the first ones
+        private final int      computed;
+        private final boolean  fast;    //sigmoid interpolated, as the networks'
+        private final int      links;
+        private final int      size;
+        private final int[]    neurons;
+        private final int[]    offsets;
+        private final int[]    sources;
+        private final double[] weights; //weights[link * count + lane]
+        private final double[] values;  //values[neuron * count + lane]
+        private final double[] sums;
+
+        private Group(final List<Integer> members, final List<Genome> genomes) {
+            final int count = members.size();
+            final Network first = genomes.get(members.get(0)).network;
+            lanes = new int[count];
+            this.count = count;
+            computed = first.count;
+            fast = first.fastActivation;
+            links = first.links;
+            size = first.size;
+            neurons = first.neurons;
+            offsets = first.offsets;
+            sources = first.sources;
+            weights = new double[first.links * count];
+            values = new double[first.size * count];
+            sums = new double[count];
+            for (int lane = 0; lane < count; ++lane) {
+                lanes[lane] = members.get(lane);
+                final Network network = genomes.get(lanes[lane]).network;
+                for (int j = 0; j < network.links; ++j)
+                    weights[j * count + lane] = network.weights[j];
+                for (int j = 0; j < network.size; ++j)
+                    values[j * count + lane] = network.values[j];
+            }
+        }
+
+        //Drops the lanes of genomes no longer active once they are half the
+        //lanes or more, moving the others down in place. Until then they are
+        //computed along with the rest: the loops over lanes stay contiguous for
+        //the JIT to vectorize, which costs less than testing every lane
+        private void pack(final boolean[] active) {
+            int live = 0;
+            for (int lane = 0; lane < count; ++lane)
+                if (active[lanes[lane]])
+                    ++live;
+            if (live * 2 > count)
+                return;
+            //Every lane moves to a lower index than it is read from
+            for (int row = 0; row < links; ++row)
+                for (int lane = 0, next = 0; lane < count; ++lane)
+                    if (active[lanes[lane]])
+                        weights[row * live + next++] = weights[row * count + lane];
+            for (int row = 0; row < size; ++row)
+                for (int lane = 0, next = 0; lane < count; ++lane)
+                    if (active[lanes[lane]])
+                        values[row * live + next++] = values[row * count + lane];
+            for (int lane = 0, next = 0; lane < count; ++lane)
+                if (active[lanes[lane]])
+                    lanes[next++] = lanes[lane];
+            count = live;
+        }
+
+        @Override
+        public void evaluate(final double[] inputs, final boolean[] active,
+                final boolean[] flaps) {
+            pack(active);
+            final int count = this.count;
+            if (count == 0)
+                return;
+            final double[] weights = this.weights;
+            final double[] values = this.values;
+            final double[] sums = this.sums;
+
+            for (int k = 0; k < INPUTS; ++k)
+                for (int lane = 0; lane < count; ++lane)
+                    values[k * count + lane] = inputs[lanes[lane] * INPUTS + k];
+
+            for (int i = 0; i < computed; ++i) {
+                Arrays.fill(sums, 0, count, 0.0);
+                for (int j = offsets[i]; j < offsets[i + 1]; ++j) {
+                    final int w = j * count;
+                    final int v = sources[j] * count;
+                    for (int lane = 0; lane < count; ++lane)
+                        sums[lane] += weights[w + lane] * values[v + lane];
+                }
+                final int target = neurons[i] * count;
+                for (int lane = 0; lane < count; ++lane)
+                    values[target + lane] = Neuron.sigmoid(sums[lane], fast);
+            }
+
+            //The first output decides the flap
+            for (int lane = 0; lane < count; ++lane)
+                flaps[lanes[lane]] = values[INPUTS * count + lane] > 0.5;
+        }
+    }
+
+    //A Group in single precision
+    private static class FloatGroup implements Lanes {
+        private final int[]   lanes;
+        private int           count;
+        private final int     computed;
+        private final boolean fast;
+        private final int     links;
+        private final int     size;
+        private final int[]   neurons;
+        private final int[]   offsets;
+        private final int[]   sources;
+        private final float[] weights;  //weights[link * count + lane]
+        private final float[] values;   //values[neuron * count + lane]
+        private final float[] sums;
+
+        private FloatGroup(final List<Integer> members,
+                final List<Genome> genomes) {
+            final int count = members.size();
+            final Network first = genomes.get(members.get(0)).network;
+            lanes = new int[count];
+            this.count = count;
+            computed = first.count;
+            fast = first.fastActivation;
+            links = first.links;
+            size = first.size;
+            neurons = first.neurons;
+            offsets = first.offsets;
+            sources = first.sources;
+            weights = new float[first.links * count];
+            values = new float[first.size * count];
+            sums = new float[count];
+            for (int lane = 0; lane < count; ++lane) {
+                lanes[lane] = members.get(lane);
+                final Network network = genomes.get(lanes[lane]).network;
+                for (int j = 0; j < network.links; ++j)
+                    weights[j * count + lane] = (float) network.weights[j];
+                for (int j = 0; j < network.size; ++j)
+                    values[j * count + lane] = (float) network.values[j];
+            }
+        }
+
+        //As in Group
+        private void pack(final boolean[] active) {
+            int live = 0;
+            for (int lane = 0; lane < count; ++lane)
+                if (active[lanes[lane]])
+                    ++live;
+            if (live * 2 > count)
+                return;
+            for (int row = 0; row < links; ++row)
+                for (int lane = 0, next = 0; lane < count; ++lane)
+                    if (active[lanes[lane]])
+                        weights[row * live + next++] = weights[row * count + lane];
+            for (int row = 0; row < size; ++row)
+                for (int lane = 0, next = 0; lane < count; ++lane)
+                    if (active[lanes[lane]])
+                        values[row * live + next++] = values[row * count + lane];
+            for (int lane = 0, next = 0; lane < count; ++lane)
+                if (active[lanes[lane]])
+                    lanes[next++] = lanes[lane];
+            count = live;
+        }
+
+        @Override
+        public void evaluate(final double[] inputs, final boolean[] active,
+                final boolean[] flaps) {
+            pack(active);
+            final int count = this.count;
+            if (count == 0)
+                return;
+            final float[] weights = this.weights;
+            final float[] values = this.values;
+            final float[] sums = this.sums;
+
+            if (count == 1) {
+                if (active[lanes[0]])
+                    evaluate(inputs, flaps, lanes[0]);
+                return;
+            }
+            for (int k = 0; k < INPUTS; ++k)
+                for (int lane = 0; lane < count; ++lane)
+                    values[k * count + lane] = (float) inputs[lanes[lane] * INPUTS + k];
+
+            for (int i = 0; i < computed; ++i) {
+                Arrays.fill(sums, 0, count, 0.0f);
+                for (int j = offsets[i]; j < offsets[i + 1]; ++j) {
+                    final int w = j * count;
+                    final int v = sources[j] * count;
+                    for (int lane = 0; lane < count; ++lane)
+                        sums[lane] += weights[w + lane] * values[v + lane];
+                }
+                final int target = neurons[i] * count;
+                for (int lane = 0; lane < count; ++lane)
+                    values[target + lane] = (float) Neuron.sigmoid(sums[lane],
+                            fast);
+            }
+
+            for (int lane = 0; lane < count; ++lane)
+                flaps[lanes[lane]] = values[INPUTS * count + lane] > 0.5f;
+        }
+
+        //A group of one lane is a network of its own, evaluated without the
+        //loops over lanes
+        private void evaluate(final double[] inputs, final boolean[] flaps,
+                final int genome) {
+            final float[] weights = this.weights;
+            final float[] values = this.values;
+            for (int k = 0; k < INPUTS; ++k)
+                values[k] = (float) inputs[genome * INPUTS + k];
+            for (int i = 0; i < computed; ++i) {
+                float sum = 0.0f;
+                for (int j = offsets[i]; j < offsets[i + 1]; ++j)
+                    sum += weights[j] * values[sources[j]];
+                values[neurons[i]] = (float) Neuron.sigmoid(sum, fast);
+            }
+            flaps[genome] = values[INPUTS] > 0.5f;
+        }
+    }
+
+    //Topology of a compiled network, used to group identical ones
+    private static class Topology {
+        private final Network network;
+        private final int     hash;
+
+        private Topology(final Network network) {
+            this.network = network;
+            hash = 31 * (31 * hash(network.neurons, network.count)
+                    + hash(network.sources, network.links)) + network.size;
+        }
+
+        //Arrays.hashCode of the first 'length' values
+        private static int hash(final int[] values, final int length) {
+            int hash = 1;
+            for (int i = 0; i < length; ++i)
+                hash = 31 * hash + values[i];
+            return hash;
+        }
+
+        //Tells if the first 'length' values of both arrays are equal
+        private static boolean same(final int[] a, final int[] b,
+                final int length) {
+            for (int i = 0; i < length; ++i)
+                if (a[i] != b[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Topology))
+                return false;
+            final Network other = ((Topology) o).network;
+            return network.size == other.size
+                    && network.fastActivation == other.fastActivation
+                    && network.count == other.count
+                    && network.links == other.links
+                    && same(network.neurons, other.neurons, network.count)
+                    && same(network.offsets, other.offsets, network.count + 1)
+                    && same(network.sources, other.sources, network.links);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final List<Genome> genomes;
+    private final boolean      singlePrecision;
+    private final Lanes[]      groups;
+    private final int[]        singles;     //genomes evaluated on their own network
+    private final double[]     input  = new double[INPUTS];
+    private final double[]     output = new double[OUTPUTS];
+
+    //Groups the genomes by topology. Their networks must already be generated
+    public BatchEvaluator(final List<Genome> genomes) {
+        this(genomes, false);
+    }
+
+    //Evaluates in single precision if asked to
+    public BatchEvaluator(final List<Genome> genomes,
+            final boolean singlePrecision) {
+        this.genomes = new ArrayList<Genome>(genomes);
+        this.singlePrecision = singlePrecision;
+        final Map<Topology, List<Integer>> byTopology = new LinkedHashMap<Topology, List<Integer>>();
+        for (int i = 0; i < genomes.size(); ++i) {
+            final Topology topology = new Topology(genomes.get(i).network);
+            List<Integer> members = byTopology.get(topology);
+            if (members == null) {
+                members = new ArrayList<Integer>();
+                byTopology.put(topology, members);
+            }
+            members.add(i);
+        }
+
+        final List<Lanes> groups = new ArrayList<Lanes>();
+        final List<Integer> singles = new ArrayList<Integer>();
+        for (final List<Integer> members : byTopology.values())
+            if (singlePrecision)
+                groups.add(new FloatGroup(members, genomes));
+            else if (members.size() > 1)
+                groups.add(new Group(members, genomes));
+            else
+                singles.add(members.get(0));
+        this.groups = groups.toArray(new Lanes[groups.size()]);
+        this.singles = new int[singles.size()];
+        for (int i = 0; i < this.singles.length; ++i)
+            this.singles[i] = singles.get(i);
+    }
+
+    //Gives the genomes evaluated on their own network, when it is not
+    //recurrent, a cache of their decisions. A network keeps its cache as long
+    //as it is not compiled again; the counts of a cache kept are cleared.
+    //In single precision every genome is in a group, so there would be
+    //nothing to cache
+    public void cacheDecisions(final int capacity, final double quantum) {
+        if (singlePrecision)
+            throw new IllegalStateException(
+                    "decision caches need double precision evaluation");
+        for (final int i : singles) {
+            final Network network = genomes.get(i).network;
+            if (network.recurrent)
+                continue;
+            if (network.decisions == null)
+                network.decisions = new DecisionCache(capacity, quantum);
+            else
+                network.decisions.clearCounts();
+        }
+    }
+
+    //Decisions taken from the caches since they were handed out, decisions
+    //their networks had to take, and bytes the caches take
+    public long cacheHits() {
+        long hits = 0;
+        for (final int i : singles)
+            if (genomes.get(i).network.decisions != null)
+                hits += genomes.get(i).network.decisions.hits;
+        return hits;
+    }
+
+    public long cacheMisses() {
+        long misses = 0;
+        for (final int i : singles)
+            if (genomes.get(i).network.decisions != null)
+                misses += genomes.get(i).network.decisions.misses;
+        return misses;
+    }
+
+    public long cacheBytes() {
+        long bytes = 0;
+        for (final int i : singles)
+            if (genomes.get(i).network.decisions != null)
+                bytes += genomes.get(i).network.decisions.bytes();
+        return bytes;
+    }
+
+    //Reads INPUTS values per genome from 'inputs' (genome i at i * INPUTS) and
+    //sets flaps[i] when genome i's output is above 0.5. Genomes that are not
+    //active are skipped where that saves work; their flaps are meaningless
+    public void evaluate(final double[] inputs, final boolean[] active,
+            final boolean[] flaps) {
+        for (final Lanes group : groups)
+            group.evaluate(inputs, active, flaps);
+
+        for (final int i : singles) {
+            if (!active[i])
+                continue;
+            System.arraycopy(inputs, i * INPUTS, input, 0, INPUTS);
+            final Network network = genomes.get(i).network;
+            if (network.decisions != null)
+                flaps[i] = network.decisions.flap(network, input, output);
+            else {
+                network.evaluate(input, output);
+                flaps[i] = output[0] > 0.5;
+            }
+        }
+    }
+}
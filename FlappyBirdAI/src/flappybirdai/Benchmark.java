@@ -0,0 +1,1477 @@
+package flappybirdai;
+
+import java.awt.Polygon;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+Command line benchmarks and self-checks. The first argument picks the mode:
+
+  alloc [ticks]     plays the game without rendering and fails if any tick, after
+                    warm-up, allocates memory (generation changes excluded)
+  collision [ticks] records the collision tests of a game, replays them through
+                    both Collision and the Polygon-based test, fails if any
+                    decision differs and reports the time each one takes
+  parallel [generations] [threads]
+                    plays each generation on one thread and then on several,
+                    fails if any fitness, or the ticks, score, birds or
+                    best bird left behind differ, and reports the speedup
+  distance          compares genomes of 50, 500 and 5000 genes by a merge pass
+                    and by the nested loops it replaced, fails if any
+                    distance or crossover differs and reports both times
+  speciation [population] [generations] [threads]
+                    breeds two equal pools on random fitness, one on one
+                    thread and one on several, fails if their genomes or
+                    species ever differ and reports the time newGeneration
+                    takes
+  footprint [genomes]
+                    measures the heap taken by that many genomes of 10, 50
+                    and 100 genes, stored as arrays and as Synapse objects,
+                    and fails if the arrays do not take 3x less per gene and
+                    per genome of every size
+  gc [generations]  trains headless for that many generations, without and
+                    with recycling, and reports the bytes allocated per
+                    generation by breeding and by starting the level, and
+                    the collections the garbage collector made
+  prune [generations]
+                    trains for that many generations, then compiles every
+                    genome with and without pruning, fails if any output
+                    differs over random inputs and reports the neurons,
+                    links and evaluation time of both. Copies of the genomes
+                    with a fifth of their genes disabled are checked too
+  bytecode          grows genomes of 10 to 3000 genes, runs each network
+                    interpreted and as generated code, fails if any output
+                    differs and reports the time to generate the code, the
+                    time per evaluation of both, and the evaluations after
+                    which generating pays off. Then checks unpruned networks
+                    as wide as generated code can index, and wider
+  activation [generations]
+                    measures the largest difference between the table and
+                    the exact sigmoid and the time each takes, then plays
+                    that many generations and counts how often networks
+                    using the table flap differently on the same inputs
+  precision [generations]
+                    plays that many generations in double precision and
+                    counts how often the population evaluated in single
+                    precision flaps differently on the same inputs, then
+                    times both on the last population
+  decisions [generations] [capacity] [quantum]
+                    plays that many generations, feeding the inputs of every
+                    bird whose network has no loops to a cached copy of it,
+                    and reports the hit rate, the memory taken and how often
+                    the cached decision differs; then times training with
+                    and without the cache
+  checkpoint [genomes] [generations]
+                    trains for that many generations, fills a pool with that
+                    many copies of its genomes, saves it and loads it back,
+                    fails if any genome or counter differs and reports the
+                    time each save took from training, the time to write
+                    it, its size and the time to load it
+  statistics [generations]
+                    trains for that many generations logging statistics to
+                    a CSV and a binary file, fails if what is read back
+                    differs from what was logged and reports the time taken
+                    from training against the time of the generations
+*/
+public class Benchmark {
+
+    //Results of timed loops, kept so the JIT cannot drop the work
+    static int sink;
+
+    public static void main(final String[] args) {
+        final String mode = args.length > 0 ? args[0] : "";
+        if (mode.equals("alloc"))
+            allocation(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+        else if (mode.equals("collision"))
+            collision(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+        else if (mode.equals("parallel"))
+            parallel(args.length > 1 ? Integer.parseInt(args[1]) : 30,
+                    args.length > 2 ? Integer.parseInt(args[2])
+                            : Runtime.getRuntime().availableProcessors());
+        else if (mode.equals("distance"))
+            distance();
+        else if (mode.equals("gc"))
+            garbage(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+        else if (mode.equals("prune"))
+            prune(args.length > 1 ? Integer.parseInt(args[1]) : 300);
+        else if (mode.equals("bytecode"))
+            bytecode();
+        else if (mode.equals("activation"))
+            activation(args.length > 1 ? Integer.parseInt(args[1]) : 50);
+        else if (mode.equals("precision"))
+            precision(args.length > 1 ? Integer.parseInt(args[1]) : 50);
+        else if (mode.equals("decisions"))
+            decisions(args.length > 1 ? Integer.parseInt(args[1]) : 100,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 4096,
+                    args.length > 3 ? Double.parseDouble(args[3])
+                            : 1.0 / 1024);
+        else if (mode.equals("checkpoint"))
+            checkpoint(args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 100);
+        else if (mode.equals("statistics"))
+            statistics(args.length > 1 ? Integer.parseInt(args[1]) : 300);
+        else if (mode.equals("footprint"))
+            footprint(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+        else if (mode.equals("speciation"))
+            speciation(args.length > 1 ? Integer.parseInt(args[1]) : 20000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                    args.length > 3 ? Integer.parseInt(args[3])
+                            : Runtime.getRuntime().availableProcessors());
+        else {
+            System.err.println("usage: Benchmark alloc|collision [ticks]");
+            System.err.println("       Benchmark parallel [generations] [threads]");
+            System.err.println("       Benchmark distance");
+            System.err.println("       Benchmark speciation [population] [generations] [threads]");
+            System.err.println("       Benchmark footprint [genomes]");
+            System.err.println("       Benchmark gc [generations]");
+            System.err.println("       Benchmark prune [generations]");
+            System.err.println("       Benchmark bytecode");
+            System.err.println("       Benchmark activation [generations]");
+            System.err.println("       Benchmark precision [generations]");
+            System.err.println("       Benchmark decisions [generations] [capacity] [quantum]");
+            System.err.println("       Benchmark checkpoint [genomes] [generations]");
+            System.err.println("       Benchmark statistics [generations]");
+            System.exit(2);
+        }
+    }
+
+    //Measures the bytes allocated by each tick through the thread allocation
+    //counters. Ticks that start a new generation are skipped, since breeding
+    //allocates the new population
+    private static void allocation(final int ticks) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        final Simulation simulation = new Simulation();
+        simulation.start();
+        for (int i = 0; i < ticks; ++i)
+            simulation.tick();
+
+        //Cost of reading the counter itself. Read it often enough for the JIT
+        //to compile it, so that doing so does not show up during the run
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 100000; ++i) {
+            final long before = threads.getThreadAllocatedBytes(thread);
+            overhead = Math.min(overhead,
+                    threads.getThreadAllocatedBytes(thread) - before);
+        }
+
+        int measured = 0;
+        int allocating = 0;
+        long worst = 0;
+        for (int i = 0; i < ticks; ++i) {
+            final int generation = simulation.pool.generation;
+            final long before = threads.getThreadAllocatedBytes(thread);
+            simulation.tick();
+            final long bytes = threads.getThreadAllocatedBytes(thread) - before
+                    - overhead;
+            if (simulation.pool.generation != generation)
+                continue;
+            ++measured;
+            if (bytes > 0) {
+                ++allocating;
+                worst = Math.max(worst, bytes);
+            }
+        }
+
+        System.out.println(measured + " ticks measured, " + allocating
+                + " allocated (worst " + worst + " bytes), generation "
+                + simulation.pool.generation);
+        if (allocating > 0)
+            System.exit(1);
+    }
+
+    //Collision that keeps every test made during a game
+    private static class RecordingCollision extends Collision {
+        private double[] places = new double[1024]; //height and angle of each bird placed
+        private int[]    counts = new int[512];     //rectangles tested for each bird
+        private double[] rects  = new double[1024]; //x, y, w, h of each rectangle
+        private int      birds;
+        private int      tests;
+
+        @Override
+        public void place(final double height, final double angle) {
+            if (birds == counts.length) {
+                places = Arrays.copyOf(places, places.length * 2);
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            places[2 * birds] = height;
+            places[2 * birds + 1] = angle;
+            counts[birds++] = 0;
+            super.place(height, angle);
+        }
+
+        @Override
+        public boolean hits(final double x, final double y, final double w,
+                final double h) {
+            if (4 * tests == rects.length)
+                rects = Arrays.copyOf(rects, rects.length * 2);
+            rects[4 * tests] = x;
+            rects[4 * tests + 1] = y;
+            rects[4 * tests + 2] = w;
+            rects[4 * tests + 3] = h;
+            ++tests;
+            ++counts[birds - 1];
+            return super.hits(x, y, w, h);
+        }
+    }
+
+    //The test update() used to make: the outline polygon transformed through
+    //java.awt.geom and intersected with each rectangle
+    private static Shape reference(final double height, final double angle) {
+        final AffineTransform at = new AffineTransform();
+        at.translate(Collision.LEFT, Simulation.HEIGHT - height);
+        at.rotate(-angle / 180.0 * Math.PI, Collision.PIVOT_X,
+                Collision.PIVOT_Y);
+        at.translate(0, Collision.OFFSET_Y);
+        return new GeneralPath(new Polygon(Collision.XS, Collision.YS,
+                Collision.XS.length)).createTransformedShape(at);
+    }
+
+    private static void collision(final int ticks) {
+        final Simulation simulation = new Simulation();
+        final RecordingCollision recording = new RecordingCollision();
+        simulation.collision = recording;
+        simulation.start();
+        for (int i = 0; i < ticks; ++i)
+            simulation.tick();
+
+        //Probes around the bird at every angle, to cover near misses that a
+        //game rarely produces
+        final Random random = new Random(1);
+        final int probes = 200000;
+        final double[] probePlaces = new double[2 * probes];
+        final double[] probeRects = new double[4 * probes];
+        for (int i = 0; i < probes; ++i) {
+            probePlaces[2 * i] = 100 + random.nextDouble() * 600;
+            probePlaces[2 * i + 1] = random.nextInt(4) == 0
+                    ? random.nextInt(181) - 90 : random.nextDouble() * 180 - 90;
+            probeRects[4 * i] = Collision.LEFT - 110 + random.nextDouble() * 200;
+            probeRects[4 * i + 1] = Simulation.HEIGHT - probePlaces[2 * i]
+                    - 50 + random.nextDouble() * 100 - (random.nextBoolean()
+                            ? Simulation.TUBE_HEIGHT : 0);
+            probeRects[4 * i + 2] = Simulation.TUBE_WIDTH;
+            probeRects[4 * i + 3] = Simulation.TUBE_HEIGHT;
+        }
+        final int[] probeCounts = new int[probes];
+        Arrays.fill(probeCounts, 1);
+
+        final int differences = compare(recording.places, recording.counts,
+                recording.rects, recording.birds)
+                + compare(probePlaces, probeCounts, probeRects, probes);
+        System.out.println(recording.birds + " birds and " + recording.tests
+                + " tube tests recorded over " + ticks + " ticks, " + probes
+                + " probes, " + differences + " differences");
+
+        //Times both over the recording, a few rounds so the JIT settles
+        long referenceNanos = 0;
+        long collisionNanos = 0;
+        int hits = 0;
+        for (int round = 0; round < 5; ++round) {
+            long start = System.nanoTime();
+            int rect = 0;
+            for (int i = 0; i < recording.birds; ++i) {
+                final Shape bounds = reference(recording.places[2 * i],
+                        recording.places[2 * i + 1]);
+                for (int j = 0; j < recording.counts[i]; ++j, ++rect)
+                    if (bounds.intersects(new Rectangle2D.Double(
+                            recording.rects[4 * rect],
+                            recording.rects[4 * rect + 1],
+                            recording.rects[4 * rect + 2],
+                            recording.rects[4 * rect + 3])))
+                        ++hits;
+            }
+            referenceNanos = System.nanoTime() - start;
+
+            final Collision collision = new Collision();
+            start = System.nanoTime();
+            rect = 0;
+            for (int i = 0; i < recording.birds; ++i) {
+                collision.place(recording.places[2 * i],
+                        recording.places[2 * i + 1]);
+                for (int j = 0; j < recording.counts[i]; ++j, ++rect)
+                    if (collision.hits(recording.rects[4 * rect],
+                            recording.rects[4 * rect + 1],
+                            recording.rects[4 * rect + 2],
+                            recording.rects[4 * rect + 3]))
+                        ++hits;
+            }
+            collisionNanos = System.nanoTime() - start;
+        }
+        System.out.printf("per bird: Polygon %.1f ns, Collision %.1f ns (%.1fx), %d hits%n",
+                (double) referenceNanos / recording.birds,
+                (double) collisionNanos / recording.birds,
+                (double) referenceNanos / collisionNanos, hits);
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    //Counts the tests where Collision and the Polygon-based test disagree
+    private static int compare(final double[] places, final int[] counts,
+            final double[] rects, final int birds) {
+        final Collision collision = new Collision();
+        int differences = 0;
+        int rect = 0;
+        for (int i = 0; i < birds; ++i) {
+            final Shape bounds = reference(places[2 * i], places[2 * i + 1]);
+            collision.place(places[2 * i], places[2 * i + 1]);
+            for (int j = 0; j < counts[i]; ++j, ++rect) {
+                final double x = rects[4 * rect];
+                final double y = rects[4 * rect + 1];
+                final double w = rects[4 * rect + 2];
+                final double h = rects[4 * rect + 3];
+                if (bounds.intersects(new Rectangle2D.Double(x, y, w, h))
+                        != collision.hits(x, y, w, h))
+                    ++differences;
+            }
+        }
+        return differences;
+    }
+
+    //Plays every generation twice, on one thread and on 'threads' threads,
+    //and checks that both give every genome the same fitness
+    private static void parallel(final int generations, final int threads) {
+        final Simulation simulation = seededSimulation(20000);
+
+        long sequentialNanos = 0;
+        long parallelNanos = 0;
+        long ticks = 0;
+        int differences = 0;
+        for (int generation = 0; generation < generations; ++generation) {
+            final List<Genome> genomes = new ArrayList<Genome>();
+            for (final Species species : simulation.pool.species)
+                genomes.addAll(species.genomes);
+            final double[] initial = new double[genomes.size()];
+            for (int i = 0; i < initial.length; ++i)
+                initial[i] = genomes.get(i).fitness;
+
+            simulation.threads = 1;
+            long start = System.nanoTime();
+            simulation.evaluateGeneration();
+            sequentialNanos += System.nanoTime() - start;
+            ticks += simulation.ticks;
+            final int sequentialTicks = simulation.ticks;
+            final int sequentialScore = simulation.score;
+            final double best = simulation.best.genome.fitness;
+            final double[] sequential = new double[genomes.size()];
+            for (int i = 0; i < sequential.length; ++i) {
+                sequential[i] = genomes.get(i).fitness;
+                genomes.get(i).fitness = initial[i];
+            }
+
+            simulation.threads = threads;
+            start = System.nanoTime();
+            simulation.evaluateGeneration();
+            parallelNanos += System.nanoTime() - start;
+            for (int i = 0; i < sequential.length; ++i)
+                if (Double.doubleToLongBits(sequential[i]) != Double
+                        .doubleToLongBits(genomes.get(i).fitness))
+                    ++differences;
+            //The level the window and Trainer see after it, gathered from the parts
+            if (simulation.ticks != sequentialTicks
+                    || simulation.score != sequentialScore
+                    || simulation.birds.size() != genomes.size()
+                    || simulation.best.genome.fitness < best) {
+                System.out.printf("generation %d: level state differs%n",
+                        generation);
+                ++differences;
+            }
+
+            simulation.pool.newGeneration();
+        }
+
+        System.out.printf("%d generations, %d ticks, %d fitness differences%n",
+                generations, ticks, differences);
+        System.out.printf("1 thread %.0f ms, %d threads %.0f ms (%.2fx)%n",
+                sequentialNanos / 1e6, threads, parallelNanos / 1e6,
+                (double) sequentialNanos / parallelNanos);
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    //Genome of 'size' genes, each with a fair chance of being one of the
+    //'shared' innovations rather than one of its own
+    private static Genome genome(final Pool pool, final Random random,
+            final int size, final int offset) {
+        final Genome genome = new Genome(pool);
+        int innovation = 0;
+        while (genome.size < size) {
+            ++innovation;
+            if (random.nextInt(4) == 0)
+                continue;
+            final Synapse gene = new Synapse();
+            gene.input = random.nextInt(Pool.INPUTS);
+            gene.output = Pool.INPUTS + random.nextInt(Pool.OUTPUTS);
+            gene.weight = random.nextDouble() * 4.0 - 2.0;
+            gene.enabled = random.nextInt(5) != 0;
+            gene.innovation = random.nextInt(3) == 0 ? innovation + offset
+                    : innovation;
+            genome.addGene(gene);
+        }
+        return genome;
+    }
+
+    private static void distance() {
+        final Pool pool = new Pool();
+        final Random random = new Random(1);
+        int differences = 0;
+        for (final int size : new int[] { 50, 500, 5000 }) {
+            final Genome[] a = new Genome[8];
+            final Genome[] b = new Genome[8];
+            for (int i = 0; i < a.length; ++i) {
+                a[i] = genome(pool, random, size, size * 2);
+                b[i] = genome(pool, random, size, size * 3);
+                a[i].fitness = random.nextDouble();
+                b[i].fitness = random.nextDouble();
+            }
+
+            //Same answers, and for crossover the same child from the same
+            //random numbers
+            for (int i = 0; i < a.length; ++i) {
+                if (Double.doubleToLongBits(a[i].disjoint(b[i])) != Double
+                        .doubleToLongBits(nestedDisjoint(a[i], b[i]))
+                        || Double.doubleToLongBits(a[i].weights(b[i])) != Double
+                                .doubleToLongBits(nestedWeights(a[i], b[i]))
+                        || a[i].sameSpecies(b[i]) != nestedSameSpecies(a[i], b[i])
+                        || a[i].sameSpecies(a[i]) != nestedSameSpecies(a[i], a[i]))
+                    ++differences;
+                final Species species = new Species(pool);
+                pool.rnd.setSeed(i);
+                final Genome merged = species.crossover(a[i], b[i]);
+                pool.rnd.setSeed(i);
+                final Genome nested = nestedCrossover(pool, a[i], b[i]);
+                if (!sameGenes(merged, nested))
+                    ++differences;
+            }
+
+            final int rounds = Math.max(3, 50000000 / (size * size));
+            final Species species = new Species(pool);
+            long nestedNanos = 0;
+            long mergedNanos = 0;
+            int same = 0;
+            for (int pass = 0; pass < 3; ++pass) {
+                long start = System.nanoTime();
+                for (int round = 0; round < rounds; ++round) {
+                    final int i = round % a.length;
+                    if (nestedSameSpecies(a[i], b[i]))
+                        ++same;
+                    same += nestedCrossover(pool, a[i], b[i]).size & 1;
+                }
+                nestedNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int round = 0; round < rounds; ++round) {
+                    final int i = round % a.length;
+                    if (a[i].sameSpecies(b[i]))
+                        ++same;
+                    same += species.crossover(a[i], b[i]).size & 1;
+                }
+                mergedNanos = System.nanoTime() - start;
+            }
+            sink += same;
+            System.out.printf("%d genes: sameSpecies + crossover nested %.1f us, merged %.1f us (%.1fx)%n",
+                    size, nestedNanos / 1e3 / rounds, mergedNanos / 1e3 / rounds,
+                    (double) nestedNanos / mergedNanos);
+        }
+        System.out.println(differences + " differences");
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    //Tells if the genomes have the same genes, in the same order
+    private static boolean sameGenes(final Genome a, final Genome b) {
+        if (a.size != b.size)
+            return false;
+        for (int i = 0; i < a.size; ++i)
+            if (a.innovation(i) != b.innovation(i)
+                    || a.input(i) != b.input(i)
+                    || a.output(i) != b.output(i)
+                    || a.weight(i) != b.weight(i)
+                    || a.isEnabled(i) != b.isEnabled(i))
+                return false;
+        return true;
+    }
+
+    //Genome.disjoint, weights, sameSpecies and Species.crossover as they were:
+    //every gene of one genome looked up by scanning the other
+
+    private static double nestedDisjoint(final Genome a, final Genome b) {
+        double disjointGenes = 0.0;
+        search: for (int i = 0; i < a.size; ++i) {
+            for (int j = 0; j < b.size; ++j)
+                if (a.innovation(i) == b.innovation(j))
+                    continue search;
+            ++disjointGenes;
+        }
+        return disjointGenes / Math.max(a.size, b.size);
+    }
+
+    private static double nestedWeights(final Genome a, final Genome b) {
+        double sum = 0.0;
+        double coincident = 0.0;
+        search: for (int i = 0; i < a.size; ++i)
+            for (int j = 0; j < b.size; ++j)
+                if (a.innovation(i) == b.innovation(j)) {
+                    sum += Math.abs((double) a.weight(i) - b.weight(j));
+                    ++coincident;
+                    continue search;
+                }
+        return sum / coincident;
+    }
+
+    private static boolean nestedSameSpecies(final Genome a, final Genome b) {
+        final double dd = a.pool.deltaDisjoint * nestedDisjoint(a, b);
+        final double dw = a.pool.deltaWeights * nestedWeights(a, b);
+        return dd + dw < a.pool.deltaThreshold;
+    }
+
+    private static Genome nestedCrossover(final Pool pool, Genome g1, Genome g2) {
+        if (g2.fitness > g1.fitness) {
+            final Genome tmp = g1;
+            g1 = g2;
+            g2 = tmp;
+        }
+        final Genome child = new Genome(pool);
+        outerloop: for (int i = 0; i < g1.size; ++i) {
+            for (int j = 0; j < g2.size; ++j)
+                if (g1.innovation(i) == g2.innovation(j))
+                    if (pool.rnd.nextBoolean() && g2.isEnabled(j)) {
+                        child.addGene(g2, j);
+                        continue outerloop;
+                    } else
+                        break;
+            child.addGene(g1, i);
+        }
+        child.maxNeuron = Math.max(g1.maxNeuron, g2.maxNeuron);
+        child.rates = g1.rates;
+        return child;
+    }
+
+    private static void speciation(final int population, final int generations,
+            final int threads) {
+        final Pool sequential = new Pool();
+        final Pool parallel = new Pool();
+        for (final Pool pool : new Pool[] { sequential, parallel }) {
+            pool.population = population;
+            pool.rnd.setSeed(1);
+        }
+        parallel.threads = threads;
+        sequential.initializePool();
+        parallel.initializePool();
+
+        long sequentialNanos = 0;
+        long parallelNanos = 0;
+        int differences = 0;
+        for (int generation = 0; generation < generations; ++generation) {
+            //Fitness the game would have given, the same for both pools
+            for (final Pool pool : new Pool[] { sequential, parallel }) {
+                final Random random = new Random(generation);
+                for (final Species species : pool.species)
+                    for (final Genome genome : species.genomes)
+                        genome.fitness = random.nextInt(1000);
+            }
+
+            long start = System.nanoTime();
+            sequential.newGeneration();
+            sequentialNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            parallel.newGeneration();
+            parallelNanos += System.nanoTime() - start;
+
+            if (sequential.species.size() != parallel.species.size())
+                ++differences;
+            else
+                for (int i = 0; i < sequential.species.size(); ++i) {
+                    final List<Genome> a = sequential.species.get(i).genomes;
+                    final List<Genome> b = parallel.species.get(i).genomes;
+                    boolean same = a.size() == b.size();
+                    for (int j = 0; same && j < a.size(); ++j)
+                        same = sameGenes(a.get(j), b.get(j));
+                    if (!same)
+                        ++differences;
+                }
+        }
+
+        System.out.printf("%d birds, %d generations, %d species and %d innovation numbers at the end, %d differences%n",
+                population, generations, parallel.species.size(),
+                parallel.innovation, differences);
+        System.out.printf("newGeneration: 1 thread %.1f ms, %d threads %.1f ms (%.2fx)%n",
+                sequentialNanos / 1e6 / generations, threads,
+                parallelNanos / 1e6 / generations,
+                (double) sequentialNanos / parallelNanos);
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    //A genome as it was stored before: a Synapse object per gene in a list,
+    //next to the other fields Genome had then
+    private static class ObjectGenome {
+        private final Pool          pool;
+        private final List<Synapse> genes = new ArrayList<Synapse>();
+        private double              fitness;
+        private int                 maxNeuron;
+        private int                 globalRank;
+        private final double[]      mutationRates = new double[7];
+        private Network             network;
+
+        private ObjectGenome(final Pool pool) {
+            this.pool = pool;
+        }
+    }
+
+    //Heap in use once the garbage collector has run
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    //Measures the bytes per genome the way an object layout tool would sum
+    //them: the heap retained by many copies, divided by their number
+    private static void footprint(final int count) {
+        final Pool pool = new Pool();
+        final Random random = new Random(1);
+        final int[] sizes = new int[] { 10, 50, 100 };
+        final double[] compactSizes = new double[sizes.length];
+        final double[] objectSizes = new double[sizes.length];
+        for (int size = 0; size < sizes.length; ++size) {
+            final int genes = sizes[size];
+            final Genome template = genome(pool, random, genes, genes * 2);
+
+            //Copies as clone() makes them, in both layouts
+            long before = usedHeap();
+            final Object[] compact = new Object[count];
+            for (int i = 0; i < count; ++i)
+                compact[i] = template.clone();
+            final double compactBytes = (double) (usedHeap() - before) / count;
+            sink += compact.length;
+            Arrays.fill(compact, null);
+
+            before = usedHeap();
+            final Object[] objects = new Object[count];
+            for (int i = 0; i < count; ++i) {
+                final ObjectGenome genome = new ObjectGenome(pool);
+                for (int j = 0; j < template.size; ++j)
+                    genome.genes.add(template.gene(j));
+                genome.maxNeuron = template.maxNeuron;
+                for (int j = 0; j < 7; ++j)
+                    genome.mutationRates[j] = template.rate(j);
+                objects[i] = genome;
+            }
+            final double objectBytes = (double) (usedHeap() - before) / count;
+            sink += objects.length;
+            Arrays.fill(objects, null);
+
+            System.out.printf("%d genes: Synapse objects %.0f bytes, arrays %.0f bytes per genome (%.2fx less)%n",
+                    genes, objectBytes, compactBytes, objectBytes / compactBytes);
+            compactSizes[size] = compactBytes;
+            objectSizes[size] = objectBytes;
+        }
+
+        //What one more gene costs, apart from the fields every genome has
+        final int last = sizes.length - 1;
+        final double objectGene = (objectSizes[last] - objectSizes[0])
+                / (sizes[last] - sizes[0]);
+        final double compactGene = (compactSizes[last] - compactSizes[0])
+                / (sizes[last] - sizes[0]);
+        System.out.printf("per gene: Synapse objects %.1f bytes, arrays %.1f bytes (%.2fx less)%n",
+                objectGene, compactGene, objectGene / compactGene);
+        boolean fails = objectGene / compactGene < 3.0;
+        for (int size = 0; size < sizes.length; ++size)
+            fails |= objectSizes[size] / compactSizes[size] < 3.0;
+        if (fails)
+            System.exit(1);
+    }
+
+    //Allocation and collections over a headless training run
+    private static void garbage(final int generations) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        for (final boolean recycle : new boolean[] { false, true }) {
+            final Simulation simulation = seededSimulation(2000);
+            simulation.pool.recycle = recycle;
+
+            final long[] breeding = new long[generations];
+            final long[] level = new long[generations];
+            long collections = -collections();
+            long collectionMillis = -collectionMillis();
+            for (int generation = 0; generation < generations; ++generation) {
+                //Playing allocates nothing, so this is starting the level
+                long before = threads.getThreadAllocatedBytes(thread);
+                simulation.evaluateGeneration();
+                level[generation] = threads.getThreadAllocatedBytes(thread)
+                        - before;
+                before = threads.getThreadAllocatedBytes(thread);
+                simulation.pool.newGeneration();
+                breeding[generation] = threads.getThreadAllocatedBytes(thread)
+                        - before;
+            }
+            collections += collections();
+            collectionMillis += collectionMillis();
+
+            final int tenth = Math.max(1, generations / 10);
+            System.out.printf("recycle %s: breeding %.1f KB/generation in the first %d generations, %.1f KB in the last; "
+                    + "level start %.1f KB, then %.1f KB; %d collections, %d ms%n",
+                    recycle, mean(breeding, 0, tenth) / 1024, tenth,
+                    mean(breeding, generations - tenth, generations) / 1024,
+                    mean(level, 0, tenth) / 1024,
+                    mean(level, generations - tenth, generations) / 1024,
+                    collections, collectionMillis);
+        }
+    }
+
+    //Evaluates the networks of an evolved population with and without pruning
+    private static void prune(final int generations) {
+        final Simulation simulation = seededSimulation(2000);
+        for (int generation = 0; generation < generations; ++generation)
+            simulation.runGeneration();
+
+        final List<Genome> genomes = new ArrayList<Genome>();
+        for (final Species species : simulation.pool.species)
+            genomes.addAll(species.genomes);
+        final Random random = new Random(1);
+        for (final String kind : new String[] { "evolved", "damaged" }) {
+            final List<Network> full = new ArrayList<Network>();
+            final List<Network> pruned = new ArrayList<Network>();
+            for (final Genome genome : genomes) {
+                final Genome copy = genome.clone();
+                if (kind.equals("damaged"))
+                    for (int i = 0; i < copy.size; ++i)
+                        if (random.nextInt(5) == 0)
+                            copy.setEnabled(i, false);
+                full.add(new Network(copy, false));
+                pruned.add(new Network(copy, true));
+            }
+            System.out.printf("%s genomes:%n", kind);
+            if (!compare(full, pruned, random))
+                System.exit(1);
+        }
+    }
+
+    //Evaluates both lists of networks on the same inputs, reports their size
+    //and speed and tells if they gave the same outputs
+    private static boolean compare(final List<Network> full,
+            final List<Network> pruned, final Random random) {
+        //The same inputs for both, the last one being the bias
+        final int ticks = 2000;
+        final double[] inputs = new double[ticks * Pool.INPUTS];
+        for (int i = 0; i < inputs.length; ++i)
+            inputs[i] = i % Pool.INPUTS == Pool.INPUTS - 1 ? 1.0
+                    : random.nextDouble();
+
+        int differences = 0;
+        final double[] input = new double[Pool.INPUTS];
+        final double[] a = new double[Pool.OUTPUTS];
+        final double[] b = new double[Pool.OUTPUTS];
+        for (int i = 0; i < full.size(); ++i)
+            for (int tick = 0; tick < ticks; ++tick) {
+                System.arraycopy(inputs, tick * Pool.INPUTS, input, 0,
+                        Pool.INPUTS);
+                full.get(i).evaluate(input, a);
+                pruned.get(i).evaluate(input, b);
+                for (int k = 0; k < Pool.OUTPUTS; ++k)
+                    if (Double.doubleToLongBits(a[k]) != Double
+                            .doubleToLongBits(b[k]))
+                        ++differences;
+            }
+
+        final long fullNanos = evaluate(full, inputs, ticks);
+        final long prunedNanos = evaluate(pruned, inputs, ticks);
+        System.out.printf("  %d networks, %d output differences%n",
+                full.size(), differences);
+        System.out.printf("  full: %d neurons, %d links, %.0f ms%n",
+                computed(full), links(full), fullNanos / 1e6);
+        System.out.printf("  pruned: %d neurons, %d links, %.0f ms (%.2fx)%n",
+                computed(pruned), links(pruned), prunedNanos / 1e6,
+                (double) fullNanos / prunedNanos);
+        return differences == 0;
+    }
+
+    //Interpreted and generated evaluation of networks of growing size
+    private static void bytecode() {
+        final Pool pool = new Pool();
+        pool.rnd.setSeed(1);
+        final Breeding breeding = new Breeding(pool);
+        final Random random = new Random(1);
+        final int ticks = 1000;
+        final double[] inputs = new double[ticks * Pool.INPUTS];
+        for (int i = 0; i < inputs.length; ++i)
+            inputs[i] = i % Pool.INPUTS == Pool.INPUTS - 1 ? 1.0
+                    : random.nextDouble();
+
+        int differences = 0;
+        for (final int genes : new int[] { 10, 30, 100, 300, 1000, 3000 }) {
+            //Grown the way mutation grows genomes, with a link for every
+            //three new neurons or so
+            final Genome genome = new Genome(pool);
+            genome.maxNeuron = Pool.INPUTS;
+            while (genome.size < genes)
+                if (genome.size > 0 && random.nextInt(4) == 0)
+                    genome.mutateNode(breeding);
+                else
+                    genome.mutateLink(random.nextInt(5) == 0, breeding);
+
+            final Network interpreted = new Network(genome);
+            final Network generated = new Network(genome);
+            if (!generated.generate()) {
+                System.out.printf("%d genes, %d links: too large, interpreted%n",
+                        genes, generated.links);
+                continue;
+            }
+            final double[] input = new double[Pool.INPUTS];
+            final double[] a = new double[Pool.OUTPUTS];
+            final double[] b = new double[Pool.OUTPUTS];
+            for (int round = 0; round < 20; ++round)
+                for (int tick = 0; tick < ticks; ++tick) {
+                    System.arraycopy(inputs, tick * Pool.INPUTS, input, 0,
+                            Pool.INPUTS);
+                    interpreted.evaluate(input, a);
+                    generated.evaluate(input, b);
+                    if (Double.doubleToLongBits(a[0]) != Double
+                            .doubleToLongBits(b[0]))
+                        ++differences;
+                }
+
+            //Generating the class, loading it and making the instance
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 20; ++round) {
+                final Network network = new Network(genome);
+                final long start = System.nanoTime();
+                network.generate();
+                network.evaluate(input, a);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            final List<Network> one = new ArrayList<Network>();
+            one.add(interpreted);
+            final double interpretedNanos = (double) evaluate(one, inputs,
+                    ticks) / ticks;
+            one.set(0, generated);
+            final double generatedNanos = (double) evaluate(one, inputs,
+                    ticks) / ticks;
+            final double gain = interpretedNanos - generatedNanos;
+            System.out.printf("%d genes, %d links: generating %.0f us, interpreted %.0f ns, generated %.0f ns (%.2fx), pays off after %s evaluations%n",
+                    genes, generated.links, best / 1e3, interpretedNanos,
+                    generatedNanos, interpretedNanos / generatedNanos,
+                    gain > 0.0 ? String.format("%.0f", best / gain) : "no");
+        }
+
+        //Unpruned networks with as many neurons as generated code can index,
+        //and with two more, which must be left to the interpreter
+        for (final int neurons : new int[] { NetworkCompiler.MAX_NEURONS,
+                NetworkCompiler.MAX_NEURONS + 2 }) {
+            final Genome genome = wide(pool,
+                    (neurons - Pool.INPUTS - Pool.OUTPUTS) / 2);
+            final Network interpreted = new Network(genome, false);
+            final Network generated = new Network(genome, false);
+            final boolean compiled = generated.generate();
+            System.out.printf("%d neurons, %d links unpruned: %s%n",
+                    generated.size, generated.links,
+                    compiled ? "generated" : "too large, interpreted");
+            if (compiled != (generated.size <= NetworkCompiler.MAX_NEURONS))
+                ++differences;
+            final double[] input = new double[Pool.INPUTS];
+            final double[] a = new double[Pool.OUTPUTS];
+            final double[] b = new double[Pool.OUTPUTS];
+            for (int tick = 0; tick < ticks; ++tick) {
+                System.arraycopy(inputs, tick * Pool.INPUTS, input, 0,
+                        Pool.INPUTS);
+                interpreted.evaluate(input, a);
+                generated.evaluate(input, b);
+                if (Double.doubleToLongBits(a[0]) != Double
+                        .doubleToLongBits(b[0]))
+                    ++differences;
+            }
+        }
+        System.out.printf("%d output differences%n", differences);
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    //A genome of 'pairs' hidden neurons feeding one more each, the last few
+    //fed by the inputs and feeding the output, so that the neurons with the
+    //highest indices decide the output
+    private static Genome wide(final Pool pool, final int pairs) {
+        final int first = Pool.INPUTS + Pool.OUTPUTS;
+        final Genome genome = new Genome(pool, pairs + 16);
+        int innovation = 0;
+        for (int k = 0; k < pairs; ++k)
+            genome.addGene(first + 2 * k, first + 2 * k + 1, 0.5 + k % 7 * 0.1,
+                    true, ++innovation);
+        for (int k = pairs - 8; k < pairs; ++k) {
+            genome.addGene(k % Pool.INPUTS, first + 2 * k, 1.0 - k % 5 * 0.3,
+                    true, ++innovation);
+            genome.addGene(first + 2 * k + 1, Pool.INPUTS, 0.7 - k % 3 * 0.4,
+                    true, ++innovation);
+        }
+        genome.maxNeuron = first + 2 * pairs - 1;
+        return genome;
+    }
+
+    //Flap decisions of a population, set up again for every generation
+    private interface Decider {
+        //Takes the genomes of a new generation, in the order of the birds
+        void generation(List<Genome> genomes);
+
+        //Whether the flaps of the genome are decided here
+        boolean decides(int genome);
+
+        //Sets flaps[i] for every genome i that is active, from its INPUTS
+        //values in 'inputs'
+        void decide(double[] inputs, boolean[] active, boolean[] flaps);
+    }
+
+    //Decides through a network of each genome, evaluated on its own
+    private static class Networks implements Decider {
+        final List<Network>    networks = new ArrayList<Network>();
+        private final double[] input    = new double[Pool.INPUTS];
+        private final double[] output   = new double[Pool.OUTPUTS];
+
+        //The network deciding for the genome, or null to leave it out
+        Network network(final Genome genome) {
+            return new Network(genome);
+        }
+
+        //Whether the network flaps on the input
+        boolean flap(final Network network, final double[] input,
+                final double[] output) {
+            network.evaluate(input, output);
+            return output[0] > 0.5;
+        }
+
+        @Override
+        public void generation(final List<Genome> genomes) {
+            networks.clear();
+            for (final Genome genome : genomes)
+                networks.add(network(genome));
+        }
+
+        @Override
+        public boolean decides(final int genome) {
+            return networks.get(genome) != null;
+        }
+
+        @Override
+        public void decide(final double[] inputs, final boolean[] active,
+                final boolean[] flaps) {
+            for (int i = 0; i < networks.size(); ++i) {
+                if (!active[i])
+                    continue;
+                System.arraycopy(inputs, i * Pool.INPUTS, input, 0,
+                        Pool.INPUTS);
+                flaps[i] = flap(networks.get(i), input, output);
+            }
+        }
+    }
+
+    //Plays the simulation until it reaches that many generations. At every
+    //tick, the inputs of each bird alive go to both deciders, if both decide
+    //for it. Returns the decisions compared and how many of them differ
+    private static long[] compareFlaps(final Simulation simulation,
+            final int generations, final Decider reference,
+            final Decider candidate) {
+        final List<Genome> genomes = new ArrayList<Genome>();
+        boolean[] compared = null;
+        boolean[] expected = null;
+        boolean[] flaps = null;
+        long decisions = 0;
+        long differences = 0;
+        int generation = -1;
+        simulation.initializeGame();
+        while (simulation.pool.generation < generations) {
+            if (generation != simulation.pool.generation) {
+                generation = simulation.pool.generation;
+                genomes.clear();
+                for (final Bird bird : simulation.birds)
+                    genomes.add(bird.genome);
+                reference.generation(genomes);
+                candidate.generation(genomes);
+                compared = new boolean[genomes.size()];
+                expected = new boolean[genomes.size()];
+                flaps = new boolean[genomes.size()];
+            }
+            simulation.eval();
+            for (int i = 0; i < compared.length; ++i)
+                compared[i] = simulation.alive[i] && reference.decides(i)
+                        && candidate.decides(i);
+            reference.decide(simulation.inputs, compared, expected);
+            candidate.decide(simulation.inputs, compared, flaps);
+            for (int i = 0; i < compared.length; ++i)
+                if (compared[i]) {
+                    ++decisions;
+                    if (expected[i] != flaps[i])
+                        ++differences;
+                }
+            simulation.update();
+            simulation.learn();
+        }
+        return new long[] { decisions, differences };
+    }
+
+    //Error and speed of the interpolated sigmoid, and the flaps it changes
+    private static void activation(final int generations) {
+        double error = 0.0;
+        final int samples = 20000000;
+        for (int i = 0; i <= samples; ++i) {
+            final double x = -12.0 + 24.0 * i / samples;
+            error = Math.max(error,
+                    Math.abs(Neuron.interpolate(x) - Neuron.exact(x)));
+        }
+
+        final Random random = new Random(1);
+        final double[] sums = new double[1 << 16];
+        for (int i = 0; i < sums.length; ++i)
+            sums[i] = random.nextGaussian() * 2.0;
+        long exactNanos = Long.MAX_VALUE;
+        long fastNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 20; ++round) {
+            long start = System.nanoTime();
+            double total = 0.0;
+            for (int repeat = 0; repeat < 16; ++repeat)
+                for (final double x : sums)
+                    total += Neuron.exact(x);
+            exactNanos = Math.min(exactNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int repeat = 0; repeat < 16; ++repeat)
+                for (final double x : sums)
+                    total += Neuron.interpolate(x);
+            fastNanos = Math.min(fastNanos, System.nanoTime() - start);
+            sink += total > 0.0 ? 1 : 0;
+        }
+        final double calls = 16.0 * sums.length;
+        System.out.printf("largest error %.3g (bound %.0e), exact %.1f ns, table %.1f ns (%.2fx)%n",
+                error, Neuron.MAX_ERROR, exactNanos / calls, fastNanos / calls,
+                (double) exactNanos / fastNanos);
+
+        //Plays with the exact sigmoid, feeding each bird's inputs to a network
+        //of its genome per activation
+        final long[] flaps = compareFlaps(seededSimulation(2000), generations,
+                new Networks(), new Networks() {
+
+                    @Override
+                    Network network(final Genome genome) {
+                        final Network network = new Network(genome);
+                        network.fastActivation = true;
+                        return network;
+                    }
+                });
+        System.out.printf("%d generations, %d decisions, %d flap differences (%.4f%%)%n",
+                generations, flaps[0], flaps[1],
+                100.0 * flaps[1] / Math.max(1, flaps[0]));
+        if (error > Neuron.MAX_ERROR)
+            System.exit(1);
+    }
+
+    //Flaps that single precision changes, and the time it saves
+    private static void precision(final int generations) {
+        final Simulation simulation = seededSimulation(2000);
+        final long[] differences = compareFlaps(simulation, generations,
+                new Networks(), new Decider() {
+                    private BatchEvaluator single;
+
+                    @Override
+                    public void generation(final List<Genome> genomes) {
+                        single = new BatchEvaluator(genomes, true);
+                    }
+
+                    @Override
+                    public boolean decides(final int genome) {
+                        return true;
+                    }
+
+                    @Override
+                    public void decide(final double[] inputs,
+                            final boolean[] active, final boolean[] flaps) {
+                        single.evaluate(inputs, active, flaps);
+                    }
+                });
+        System.out.printf("%d generations, %d decisions, %d flap differences (%.4f%%)%n",
+                generations, differences[0], differences[1],
+                100.0 * differences[1] / Math.max(1, differences[0]));
+
+        //Both precisions on the last population, on random inputs
+        final List<Genome> genomes = new ArrayList<Genome>();
+        long links = 0;
+        for (final Bird bird : simulation.birds) {
+            bird.genome.generateNetwork();
+            genomes.add(bird.genome);
+            links += bird.genome.network.links;
+        }
+        final Random random = new Random(1);
+        final int ticks = 2000;
+        final double[] inputs = new double[ticks * genomes.size() * Pool.INPUTS];
+        for (int i = 0; i < inputs.length; ++i)
+            inputs[i] = i % Pool.INPUTS == Pool.INPUTS - 1 ? 1.0
+                    : random.nextDouble();
+        final boolean[] active = new boolean[genomes.size()];
+        Arrays.fill(active, true);
+        final boolean[] flaps = new boolean[genomes.size()];
+        final double[] tick = new double[genomes.size() * Pool.INPUTS];
+        final long[] nanos = new long[2];
+        for (int mode = 0; mode < 2; ++mode) {
+            final BatchEvaluator batch = new BatchEvaluator(genomes, mode == 1);
+            nanos[mode] = Long.MAX_VALUE;
+            for (int round = 0; round < 10; ++round) {
+                final long start = System.nanoTime();
+                for (int t = 0; t < ticks; ++t) {
+                    System.arraycopy(inputs, t * tick.length, tick, 0,
+                            tick.length);
+                    batch.evaluate(tick, active, flaps);
+                    sink += flaps[0] ? 1 : 0;
+                }
+                nanos[mode] = Math.min(nanos[mode], System.nanoTime() - start);
+            }
+        }
+        System.out.printf("%d genomes, %d links: double %.0f ms, single %.0f ms (%.2fx), weights %d KB then %d KB%n",
+                genomes.size(), links, nanos[0] / 1e6, nanos[1] / 1e6,
+                (double) nanos[0] / nanos[1], links * 8 / 1024,
+                links * 4 / 1024);
+    }
+
+    //Networks that decide through a decision cache, leaving out the recurrent
+    //ones, and what their caches did
+    private static class CachedNetworks extends Networks {
+        private final int    capacity;
+        private final double quantum;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long bytes;
+        private long held;
+        private int  count;
+        private int  recurrent;
+
+        private CachedNetworks(final int capacity, final double quantum) {
+            this.capacity = capacity;
+            this.quantum = quantum;
+        }
+
+        @Override
+        Network network(final Genome genome) {
+            final Network network = new Network(genome);
+            ++count;
+            if (network.recurrent) {
+                ++recurrent;
+                return null;
+            }
+            network.decisions = new DecisionCache(capacity, quantum);
+            return network;
+        }
+
+        @Override
+        boolean flap(final Network network, final double[] input,
+                final double[] output) {
+            return network.decisions.flap(network, input, output);
+        }
+
+        @Override
+        public void generation(final List<Genome> genomes) {
+            count();
+            super.generation(genomes);
+        }
+
+        //Adds up the caches of the generation played
+        private void count() {
+            for (final Network network : networks)
+                if (network != null) {
+                    hits += network.decisions.hits;
+                    misses += network.decisions.misses;
+                    evictions += network.decisions.evictions;
+                    bytes = Math.max(bytes, network.decisions.bytes());
+                    held += network.decisions.size();
+                }
+            networks.clear();
+        }
+    }
+
+    //Hit rate, memory and exactness of decision caches, and the time they save
+    private static void decisions(final int generations, final int capacity,
+            final double quantum) {
+        final CachedNetworks cached = new CachedNetworks(capacity, quantum);
+        final long[] flaps = compareFlaps(seededSimulation(2000), generations,
+                new Networks(), cached);
+        cached.count();
+        System.out.printf("%d networks, %d recurrent; %d decisions cached, %d flap differences (%.4f%%)%n",
+                cached.count, cached.recurrent, flaps[0], flaps[1],
+                100.0 * flaps[1] / Math.max(1, flaps[0]));
+        System.out.printf("hit rate %.1f%%, %d evictions, %.0f decisions held per network, %d KB per cache%n",
+                100.0 * cached.hits / Math.max(1, cached.hits + cached.misses),
+                cached.evictions,
+                (double) cached.held / Math.max(1, cached.count - cached.recurrent),
+                cached.bytes / 1024);
+
+        //Training with and without caches, from the same seed
+        for (final int entries : new int[] { 0, capacity }) {
+            final Simulation run = seededSimulation(2000);
+            run.decisionCache = entries;
+            run.quantum = quantum;
+            long ticks = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < generations; ++i) {
+                run.evaluateGeneration();
+                ticks += run.ticks;
+                run.pool.newGeneration();
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("cache %d: %d ticks in %.1f s, %.0f ticks/s, max fitness %.1f%n",
+                    entries, ticks, seconds, ticks / seconds,
+                    run.pool.maxFitness);
+        }
+    }
+
+    //Saves a large population a few times, waiting for each to be written,
+    //then loads it into another simulation and compares the two
+    private static void checkpoint(final int count, final int generations) {
+        final Simulation trained = seededSimulation(20000);
+        for (int generation = 0; generation < generations; ++generation)
+            trained.runGeneration();
+
+        //As many genomes as asked, copied from the trained ones and kept in
+        //their species
+        final Simulation simulation = new Simulation();
+        final Pool pool = simulation.pool;
+        simulation.seed = trained.seed;
+        pool.generation = trained.pool.generation;
+        pool.innovation = trained.pool.innovation;
+        pool.maxFitness = trained.pool.maxFitness;
+        pool.population = count;
+        pool.rnd.restore(trained.pool.rnd.state());
+        for (final Species species : trained.pool.species) {
+            final Species copy = new Species(pool);
+            copy.topFitness = species.topFitness;
+            copy.staleness = species.staleness;
+            pool.species.add(copy);
+        }
+        long genes = 0;
+        for (int i = 0; i < count; ++i) {
+            final int kind = i % pool.species.size();
+            final List<Genome> genomes = trained.pool.species.get(kind).genomes;
+            final Genome genome = genomes.get(i / pool.species.size()
+                    % genomes.size());
+            final Genome copy = genome.copy(pool);
+            copy.fitness = genome.fitness + i;
+            pool.species.get(kind).genomes.add(copy);
+            genes += copy.size;
+        }
+
+        try {
+            final File file = File.createTempFile("checkpoint", ".bin");
+            file.deleteOnExit();
+            final Checkpoint checkpoint = new Checkpoint(file);
+            long copy = Long.MAX_VALUE;
+            long write = Long.MAX_VALUE;
+            for (int round = 0; round < 5; ++round) {
+                final long start = System.nanoTime();
+                checkpoint.save(simulation);
+                checkpoint.finish();
+                write = Math.min(write, System.nanoTime() - start
+                        - checkpoint.copyNanos);
+                copy = Math.min(copy, checkpoint.copyNanos);
+            }
+
+            long load = Long.MAX_VALUE;
+            Simulation loaded = null;
+            for (int round = 0; round < 5; ++round) {
+                loaded = new Simulation();
+                final long start = System.nanoTime();
+                Checkpoint.load(file, loaded);
+                load = Math.min(load, System.nanoTime() - start);
+            }
+
+            final int differences = differences(simulation, loaded);
+            System.out.printf("%d genomes, %d genes: %.1f MB, save %.1f ms of training + %.1f ms writing, load %.1f ms%n",
+                    count, genes, file.length() / 1048576.0, copy / 1e6,
+                    write / 1e6, load / 1e6);
+            System.out.println(differences + " differences");
+            if (differences > 0)
+                System.exit(1);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Trains as Trainer does with a log, timing what the log costs training
+    private static void statistics(final int generations) {
+        final Simulation simulation = seededSimulation(20000);
+        try {
+            final File csv = File.createTempFile("statistics", ".csv");
+            final File binary = File.createTempFile("statistics", ".bin");
+            csv.deleteOnExit();
+            binary.deleteOnExit();
+            final StatisticsLog log = new StatisticsLog(csv, binary);
+            final List<Statistics> logged = new ArrayList<Statistics>();
+            long training = 0;
+            long logging = 0;
+            for (int generation = 0; generation < generations; ++generation) {
+                long start = System.nanoTime();
+                simulation.evaluateGeneration();
+                final long elapsed = System.nanoTime() - start;
+                start = System.nanoTime();
+                final Statistics statistics = log.snapshot(simulation.pool,
+                        elapsed);
+                logging += System.nanoTime() - start;
+                final long bred = System.nanoTime();
+                simulation.pool.newGeneration();
+                statistics.breedNanos = System.nanoTime() - bred;
+                start = System.nanoTime();
+                log.offer(statistics);
+                logging += System.nanoTime() - start;
+                training += elapsed + statistics.breedNanos;
+                logged.add(statistics);
+            }
+            log.close();
+
+            int differences = 0;
+            final List<Statistics> read = StatisticsLog.read(binary);
+            for (int i = 0; i < Math.min(read.size(), logged.size()); ++i) {
+                final Statistics a = logged.get(i);
+                final Statistics b = read.get(i);
+                if (a.generation != b.generation || a.innovation != b.innovation
+                        || a.maxFitness != b.maxFitness
+                        || a.meanFitness != b.meanFitness
+                        || a.medianFitness != b.medianFitness
+                        || a.meanGenes != b.meanGenes
+                        || a.evaluateNanos != b.evaluateNanos
+                        || a.breedNanos != b.breedNanos
+                        || !Arrays.equals(a.speciesSizes, b.speciesSizes))
+                    ++differences;
+            }
+            final List<String> lines = java.nio.file.Files.readAllLines(
+                    csv.toPath());
+            differences += Math.abs(read.size() - logged.size())
+                    + Math.abs(lines.size() - 1 - logged.size());
+
+            System.out.printf("%d generations: %.1f ms training, %.3f ms logging (%.4f%%), %d written, %d dropped, %d bytes binary, %d bytes CSV%n",
+                    generations, training / 1e6, logging / 1e6,
+                    100.0 * logging / training, log.written, log.dropped,
+                    binary.length(), csv.length());
+            System.out.println(differences + " differences");
+            if (differences > 0)
+                System.exit(1);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Counters, species and genomes that differ between the two simulations
+    private static int differences(final Simulation a, final Simulation b) {
+        int differences = 0;
+        if (a.seed != b.seed || a.pool.rnd.state() != b.pool.rnd.state()
+                || a.pool.generation != b.pool.generation
+                || a.pool.innovation != b.pool.innovation
+                || a.pool.population != b.pool.population
+                || a.pool.maxFitness != b.pool.maxFitness
+                || a.pool.species.size() != b.pool.species.size())
+            return 1;
+        for (int i = 0; i < a.pool.species.size(); ++i) {
+            final Species x = a.pool.species.get(i);
+            final Species y = b.pool.species.get(i);
+            if (x.topFitness != y.topFitness || x.staleness != y.staleness
+                    || x.genomes.size() != y.genomes.size()) {
+                ++differences;
+                continue;
+            }
+            for (int j = 0; j < x.genomes.size(); ++j) {
+                final Genome g = x.genomes.get(j);
+                final Genome h = y.genomes.get(j);
+                boolean same = g.fitness == h.fitness
+                        && g.maxNeuron == h.maxNeuron && g.size == h.size
+                        && g.rates == h.rates;
+                for (int k = 0; same && k < g.size; ++k)
+                    same = g.input(k) == h.input(k)
+                            && g.output(k) == h.output(k)
+                            && g.innovation(k) == h.innovation(k)
+                            && g.weight(k) == h.weight(k)
+                            && g.isEnabled(k) == h.isEnabled(k);
+                if (!same)
+                    ++differences;
+            }
+        }
+        return differences;
+    }
+
+    //A simulation with seed 1 for both its tubes and its pool, whose levels
+    //end after 'maxTicks'. Its first population is bred, and its level is
+    //left to evaluateGeneration() or initializeGame()
+    private static Simulation seededSimulation(final int maxTicks) {
+        final Simulation simulation = new Simulation();
+        simulation.seed = 1;
+        simulation.maxTicks = maxTicks;
+        simulation.pool.rnd.setSeed(1);
+        simulation.pool.initializePool();
+        return simulation;
+    }
+
+    //Best time of a few rounds of evaluating every network for every tick
+    private static long evaluate(final List<Network> networks,
+            final double[] inputs, final int ticks) {
+        final double[] input = new double[Pool.INPUTS];
+        final double[] output = new double[Pool.OUTPUTS];
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 10; ++round) {
+            final long start = System.nanoTime();
+            for (final Network network : networks)
+                for (int tick = 0; tick < ticks; ++tick) {
+                    System.arraycopy(inputs, tick * Pool.INPUTS, input, 0,
+                            Pool.INPUTS);
+                    network.evaluate(input, output);
+                    sink += output[0] > 0.5 ? 1 : 0;
+                }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static int computed(final List<Network> networks) {
+        int count = 0;
+        for (final Network network : networks)
+            count += network.count;
+        return count;
+    }
+
+    private static int links(final List<Network> networks) {
+        int count = 0;
+        for (final Network network : networks)
+            count += network.links;
+        return count;
+    }
+
+    private static double mean(final long[] values, final int from,
+            final int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; ++i)
+            sum += values[i];
+        return sum / (to - from);
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (final java.lang.management.GarbageCollectorMXBean collector : ManagementFactory
+                .getGarbageCollectorMXBeans())
+            count += collector.getCollectionCount();
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (final java.lang.management.GarbageCollectorMXBean collector : ManagementFactory
+                .getGarbageCollectorMXBeans())
+            millis += collector.getCollectionTime();
+        return millis;
+    }
+}
@@ -0,0 +1,20 @@
+package flappybirdai;
+
+//The bird
+class Bird {
+    final Species species;  //species the bird belongs to, which sets its color
+    final Genome genome;    //bird's neural network
+    double height;          //how high the bird is
+    double velocity;        //bird's vertical velocity
+    double angle;           //angle bird is at
+    boolean flap;           //determines if the bird is flapping
+    int flaps;              //number of flaps bird has had
+    boolean dead;           //determines if the bird is dead
+
+    //Initializes the bird with the species and neural network
+    Bird(final Species species, final Genome genome) {
+        this.species = species;
+        this.genome = genome;                   //Sets the genome to the current one
+        height = Simulation.HEIGHT / 2.0;       //Bird starts in the middle of screen
+    }
+}
@@ -0,0 +1,128 @@
+package flappybirdai;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+The random numbers and the new genes of one child while it is bred. Children
+bred together each get a stream of random numbers of their own, so they come
+out the same whatever thread breeds them and in whatever order. Their new
+genes get provisional numbers, above any real innovation, and are numbered
+afterwards child by child, which keeps the numbers independent of the threads
+too. New genes are numbered through the pool's Innovations, so a link that
+several children add in one generation gets one number. New neurons likewise
+get provisional ids, above any real one, until the gene they split has its
+number and the pool gives them the id of that split.
+*/
+public class Breeding {
+
+    //Provisional innovation numbers start here
+    static final int PENDING = 1 << 30;
+    //Provisional neuron ids start here, so real ones stay below it
+    static final int PENDING_NEURON = Genome.MAX_NEURON - 1023;
+
+    public final Random rnd;
+    private final Pool pool;
+    private final boolean deferred;         //whether genes are numbered in number()
+    private int[] kinds = new int[4];       //kind of each pending gene
+    private int   pending = 0;
+    private int[] splits  = new int[2];     //number of the gene each new neuron splits
+    private int[] splitAt = new int[2];     //genes pending when it was split
+    private int[] neurons = new int[2];     //real id of each new neuron
+    private int   split   = 0;
+    private int[] numbers = new int[4];     //real number of each pending gene
+
+    //Draws on the pool's random numbers and numbers new genes at once
+    public Breeding(final Pool pool) {
+        this.pool = pool;
+        rnd = pool.rnd;
+        deferred = false;
+    }
+
+    //Draws on its own random numbers and numbers new genes in number()
+    public Breeding(final Pool pool, final Random rnd) {
+        this.pool = pool;
+        this.rnd = rnd;
+        deferred = true;
+    }
+
+    //Innovation number for a new gene linking input to output, of the given
+    //Innovations kind
+    public int innovation(final int input, final int output, final int kind) {
+        if (!deferred)
+            return pool.innovations.innovation(input, output, kind);
+        if (pending == kinds.length)
+            kinds = Arrays.copyOf(kinds, pending * 2);
+        kinds[pending] = kind;
+        return PENDING + pending++;
+    }
+
+    //Id of a new neuron splitting the gene of that innovation number in the
+    //genome, -1 if the gene cannot be split
+    public int neuron(final Genome genome, final int innovation) {
+        if (!deferred) {
+            final int neuron = resolve(genome, innovation);
+            return neuron >= 0 && genome.containsNeuron(neuron) ? -1 : neuron;
+        }
+        if (PENDING_NEURON + split > Genome.MAX_NEURON)
+            return -1;
+        if (split == splits.length) {
+            splits = Arrays.copyOf(splits, split * 2);
+            splitAt = Arrays.copyOf(splitAt, split * 2);
+            neurons = Arrays.copyOf(neurons, split * 2);
+        }
+        splits[split] = innovation;
+        splitAt[split] = pending;
+        return PENDING_NEURON + split++;
+    }
+
+    //The pool's neuron for the split or, once the pool has no id left, one
+    //the genome does not use yet
+    private int resolve(final Genome genome, final int innovation) {
+        int neuron = pool.innovations.neuron(innovation);
+        if (neuron < 0)
+            neuron = genome.unusedNeuron();
+        if (neuron >= 0)
+            genome.maxNeuron = Math.max(genome.maxNeuron, neuron);
+        return neuron;
+    }
+
+    //Gives the genes created since the last call their innovation numbers and
+    //the neurons their ids, in the order they were created. A number may be
+    //one that another child got first and lower than the genome's own, so its
+    //genes are sorted again
+    public void number(final Genome genome) {
+        if (pending == 0)
+            return;
+        if (numbers.length < pending)
+            numbers = new int[kinds.length];
+        //Provisional numbers sort last, in the order they were handed out, and
+        //a neuron is split off before the two genes around it
+        final int first = genome.size - pending;
+        int next = 0;
+        for (int i = 0; i < pending; ++i) {
+            for (; next < split && splitAt[next] == i; ++next) {
+                final int innovation = splits[next] >= PENDING
+                        ? numbers[splits[next] - PENDING] : splits[next];
+                neurons[next] = resolve(genome, innovation);
+                if (neurons[next] < 0)
+                    throw new IllegalStateException("no neuron id left in a genome of "
+                            + genome.size + " genes");
+            }
+            final int gene = first + i;
+            final int input = real(genome.input(gene));
+            final int output = real(genome.output(gene));
+            genome.setNeurons(gene, input, output);
+            numbers[i] = pool.innovations.innovation(input, output, kinds[i]);
+            genome.setInnovation(gene, numbers[i]);
+        }
+        pending = 0;
+        split = 0;
+        genome.sortGenes();
+    }
+
+    private int real(final int neuron) {
+        return neuron >= PENDING_NEURON ? neurons[neuron - PENDING_NEURON]
+                : neuron;
+    }
+}
@@ -0,0 +1,272 @@
+package flappybirdai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+Saves a run to a file between two generations and puts it back, so that a run
+started again from the file goes on exactly as it would have: the species and
+genomes of the pool, its counters, the state of its random numbers and the seed
+of the tubes. The file is binary, little endian like the machines it runs on,
+so that the genes are copied in and out of it as one block of ints:
+
+  int    magic "FBCP", int version
+  long   seed of the tubes, long state of the pool's random numbers
+  int    generation, int innovation, int population, double maxFitness
+  int    species, then for each species:
+    double topFitness, double averageFitness, int staleness, int genomes,
+    then for each genome:
+      double fitness, int maxNeuron, int globalRank, long rates, int genes,
+      then Genome.GENE columns of as many ints as Genome.genes holds them
+
+The pool numbers new neurons above the highest one of its genomes, so that
+counter is not saved.
+
+save() copies the run into a buffer, which is all the time it takes from
+training, and a thread of its own writes the buffer to a file next to the
+checkpoint, forces it to disk and renames it over the checkpoint, so that a
+crash while writing leaves the previous checkpoint whole. A save asked for
+while the previous one is still being written is skipped. The buffer is kept
+from one save to the next. Checkpoints are read memory-mapped.
+*/
+public class Checkpoint {
+
+    public static final int VERSION = 2;
+    private static final int MAGIC = 0x46424350;       //"FBCP"
+
+    public final File file;
+
+    //Saves written, saves skipped because the previous one was still being
+    //written, and the time the copy of the last one took from training
+    public int  saved;
+    public int  skipped;
+    public long copyNanos;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ExecutorService writer;
+    private Future<Void> pending;
+
+    public Checkpoint(final File file) {
+        this.file = file;
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable task) {
+                final Thread thread = new Thread(task, "checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //Copies the run and has it written in the background. Returns false if
+    //the previous save is still being written, in which case nothing is saved
+    public boolean save(final Simulation simulation) throws IOException {
+        if (pending != null) {
+            if (!pending.isDone()) {
+                ++skipped;
+                return false;
+            }
+            finish();
+        }
+
+        final long start = System.nanoTime();
+        final Pool pool = simulation.pool;
+        final int size = size(pool);
+        if (buffer.capacity() < size)
+            buffer = ByteBuffer.allocateDirect(size + size / 4)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putLong(simulation.seed).putLong(pool.rnd.state());
+        buffer.putInt(pool.generation).putInt(pool.innovation)
+                .putInt(pool.population).putDouble(pool.maxFitness);
+        buffer.putInt(pool.species.size());
+        for (final Species species : pool.species) {
+            buffer.putDouble(species.topFitness)
+                    .putDouble(species.averageFitness)
+                    .putInt(species.staleness).putInt(species.genomes.size());
+            for (final Genome genome : species.genomes)
+                put(genome);
+        }
+        buffer.flip();
+        copyNanos = System.nanoTime() - start;
+
+        final ByteBuffer bytes = buffer;
+        pending = writer.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                write(bytes);
+                return null;
+            }
+        });
+        ++saved;
+        return true;
+    }
+
+    //Waits for the save being written, if any
+    public void finish() throws IOException {
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing " + file, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    //Bytes the run takes in a checkpoint
+    private static int size(final Pool pool) {
+        long size = 2 * 4 + 2 * 8 + 3 * 4 + 8 + 4;
+        for (final Species species : pool.species) {
+            size += 2 * 8 + 2 * 4;
+            for (final Genome genome : species.genomes)
+                size += 8 + 2 * 4 + 8 + 4 + 4L * Genome.GENE * genome.size;
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalStateException("population too large for a checkpoint");
+        return (int) size;
+    }
+
+    private void put(final Genome genome) {
+        buffer.putDouble(genome.fitness).putInt(genome.maxNeuron)
+                .putInt(genome.globalRank);
+        buffer.putLong(genome.rates);
+        final int column = genome.genes.length / Genome.GENE;
+        buffer.putInt(genome.size);
+        final IntBuffer ints = buffer.asIntBuffer();
+        for (int c = 0; c < Genome.GENE; ++c)
+            ints.put(genome.genes, c * column, genome.size);
+        buffer.position(buffer.position() + 4 * Genome.GENE * genome.size);
+    }
+
+    private void write(final ByteBuffer bytes) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temporary = target.resolveSibling(target.getFileName()
+                + ".tmp");
+        final FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Puts the run saved in the file in place of the simulation's population,
+    //ready to play the generation it was saved at
+    public static void load(final File file, final Simulation simulation)
+            throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        final ByteBuffer bytes;
+        try {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            channel.close();
+        }
+
+        try {
+            if (bytes.getInt() != MAGIC)
+                throw new IOException(file + " is not a checkpoint");
+            final int version = bytes.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " is a checkpoint of version "
+                        + version + ", not " + VERSION);
+            final Pool pool = simulation.pool;
+            final long seed = bytes.getLong();
+            final long state = bytes.getLong();
+            final int generation = bytes.getInt();
+            final int innovation = bytes.getInt();
+            final int population = bytes.getInt();
+            final double maxFitness = bytes.getDouble();
+
+            final List<Species> species = new ArrayList<Species>();
+            final int count = bytes.getInt();
+            for (int i = 0; i < count; ++i) {
+                final Species read = new Species(pool);
+                read.topFitness = bytes.getDouble();
+                read.averageFitness = bytes.getDouble();
+                read.staleness = bytes.getInt();
+                final int genomes = bytes.getInt();
+                for (int j = 0; j < genomes; ++j)
+                    read.genomes.add(genome(bytes, pool));
+                species.add(read);
+            }
+            if (bytes.hasRemaining())
+                throw new IOException(file + " has " + bytes.remaining()
+                        + " bytes past its end");
+
+            for (final Species old : pool.species)
+                pool.drop(old.genomes);
+            pool.species.clear();
+            pool.species.addAll(species);
+            pool.generation = generation;
+            pool.innovation = innovation;
+            pool.population = population;
+            pool.maxFitness = maxFitness;
+            pool.rnd.restore(state);
+            pool.innovations.clear();
+            pool.neuron = pool.highestNeuron();
+            simulation.seed = seed;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException(file + " is cut short", e);
+        }
+    }
+
+    private static Genome genome(final ByteBuffer bytes, final Pool pool)
+            throws IOException {
+        final double fitness = bytes.getDouble();
+        final int maxNeuron = bytes.getInt();
+        final int globalRank = bytes.getInt();
+        final long rates = bytes.getLong();
+        final int size = bytes.getInt();
+        if (size < 0 || size > bytes.remaining() / (4 * Genome.GENE))
+            throw new IOException("genome of " + size + " genes");
+
+        final Genome genome = pool.newGenome(size);
+        genome.fitness = fitness;
+        genome.maxNeuron = maxNeuron;
+        genome.globalRank = globalRank;
+        genome.rates = rates;
+        genome.size = size;
+        final int column = genome.genes.length / Genome.GENE;
+        final IntBuffer ints = bytes.asIntBuffer();
+        for (int c = 0; c < Genome.GENE; ++c)
+            ints.get(genome.genes, c * column, size);
+        bytes.position(bytes.position() + 4 * Genome.GENE * size);
+        return genome;
+    }
+}
@@ -0,0 +1,234 @@
+package flappybirdai;
+
+import static flappybirdai.Simulation.BIRD_HEIGHT;
+import static flappybirdai.Simulation.BIRD_WIDTH;
+import static flappybirdai.Simulation.HEIGHT;
+import static flappybirdai.Simulation.WIDTH;
+
+/*
+Tests the bird's outline against the tube rectangles without java.awt.geom.
+The outline is rotated about the middle of the sprite by the bird's angle,
+which is clamped to [-90, 90] degrees. For every degree of that range the box
+holding the rotated outline is worked out up front, so most tests are settled
+by comparing boxes: tubes outside the bird's column are skipped outright, and
+tubes outside the box for the bird's angle cannot touch it. Only tubes that
+overlap the box go through the exact test, which transforms the outline the
+way AffineTransform does (in single precision, as GeneralPath stores it) and
+counts crossings the way Path2D.intersects does, so it dies exactly when the
+Polygon-based test would.
+*/
+public class Collision {
+
+    //Outline of the bird, relative to the bottom-left of its sprite
+    static final int[] XS = new int[] { 2, 6, 14, 18, 26, 50, 54, 58, 62, 66,
+            70, 70, 66, 62, 42, 22, 14, 10, 6, 2 };
+    static final int[] YS = new int[] { -34, -38, -42, -46, -50, -50, -46, -42,
+            -38, -26, -22, -18, -10, -6, -2, -2, -6, -10, -18, -22 };
+
+    //Where the sprite is drawn, the point it rotates about and the offset
+    //from its top to the outline's origin
+    static final int    LEFT     = WIDTH / 3 - BIRD_HEIGHT / 2;
+    static final int    PIVOT_X  = BIRD_WIDTH / 2;
+    static final int    PIVOT_Y  = BIRD_HEIGHT / 2;
+    static final int    OFFSET_Y = 52;
+
+    private static final int    STEPS  = 180;   //one box per degree of angle
+    private static final double MARGIN = 0.01;  //covers the float rounding of the outline
+
+    //Box of the rotated outline for each degree, relative to (LEFT, HEIGHT - height)
+    private static final double[] MIN_X = new double[STEPS];
+    private static final double[] MAX_X = new double[STEPS];
+    private static final double[] MIN_Y = new double[STEPS];
+    private static final double[] MAX_Y = new double[STEPS];
+
+    //Columns covered by the outline at any angle
+    private static final double COLUMN_MIN;
+    private static final double COLUMN_MAX;
+
+    private static final int RECT_INTERSECTS = 0x80000000;
+
+    static {
+        double columnMin = Double.POSITIVE_INFINITY;
+        double columnMax = Double.NEGATIVE_INFINITY;
+        for (int step = 0; step < STEPS; ++step) {
+            //Screen y points down, so the outline turns by -angle
+            final double from = Math.toRadians(-(step + 1 - 90));
+            final double to = Math.toRadians(-(step - 90));
+            MIN_X[step] = MIN_Y[step] = Double.POSITIVE_INFINITY;
+            MAX_X[step] = MAX_Y[step] = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < XS.length; ++i) {
+                final double dx = XS[i] - PIVOT_X;
+                final double dy = YS[i] + OFFSET_Y - PIVOT_Y;
+                final double radius = Math.hypot(dx, dy);
+                final double phase = Math.atan2(dy, dx);
+                //The point sweeps an arc: its extremes are at the ends of the
+                //arc or where it crosses an axis
+                extend(step, radius, phase + from);
+                extend(step, radius, phase + to);
+                for (double axis = Math.ceil((phase + from) / (Math.PI / 2))
+                        * (Math.PI / 2); axis < phase + to; axis += Math.PI / 2)
+                    extend(step, radius, axis);
+            }
+            MIN_X[step] += PIVOT_X - MARGIN;
+            MAX_X[step] += PIVOT_X + MARGIN;
+            MIN_Y[step] += PIVOT_Y - MARGIN;
+            MAX_Y[step] += PIVOT_Y + MARGIN;
+            columnMin = Math.min(columnMin, MIN_X[step]);
+            columnMax = Math.max(columnMax, MAX_X[step]);
+        }
+        COLUMN_MIN = LEFT + columnMin;
+        COLUMN_MAX = LEFT + columnMax;
+    }
+
+    private static void extend(final int step, final double radius,
+            final double angle) {
+        final double x = radius * Math.cos(angle);
+        final double y = radius * Math.sin(angle);
+        MIN_X[step] = Math.min(MIN_X[step], x);
+        MAX_X[step] = Math.max(MAX_X[step], x);
+        MIN_Y[step] = Math.min(MIN_Y[step], y);
+        MAX_Y[step] = Math.max(MAX_Y[step], y);
+    }
+
+    //The bird being tested
+    private double  height;
+    private double  angle;
+    private double  minX, maxX, minY, maxY;
+    private boolean transformed;    //whether points holds this bird's outline
+    private final double[] points = new double[XS.length * 2];
+
+    //Places the bird to be tested against the tubes
+    public void place(final double height, final double angle) {
+        this.height = height;
+        this.angle = angle;
+        final int step = Math.min(STEPS - 1, Math.max(0, (int) (angle + 90.0)));
+        minX = LEFT + MIN_X[step];
+        maxX = LEFT + MAX_X[step];
+        minY = HEIGHT - height + MIN_Y[step];
+        maxY = HEIGHT - height + MAX_Y[step];
+        transformed = false;
+    }
+
+    //Tells if the bird placed last touches the rectangle at (x, y) of size w by h
+    public boolean hits(final double x, final double y, final double w,
+            final double h) {
+        if (x >= COLUMN_MAX || x + w <= COLUMN_MIN)
+            return false;
+        if (x >= maxX || x + w <= minX || y >= maxY || y + h <= minY)
+            return false;
+        if (!transformed)
+            transform();
+        return intersects(x, y, w, h);
+    }
+
+    //Transforms the outline as AffineTransform would after translate(LEFT,
+    //HEIGHT - height), rotate(-angle, PIVOT_X, PIVOT_Y), translate(0, OFFSET_Y),
+    //rounding each point to a float like GeneralPath does
+    private void transform() {
+        final double theta = -angle / 180.0 * Math.PI;
+        double sin = Math.sin(theta);
+        double cos;
+        if (sin == 1.0 || sin == -1.0)
+            cos = 0.0;
+        else {
+            cos = Math.cos(theta);
+            //AffineTransform skips rotations whose cosine rounds to 1
+            if (cos == 1.0)
+                sin = 0.0;
+        }
+        final double m00 = cos;
+        final double m01 = -sin;
+        final double m10 = sin;
+        final double m11 = cos;
+        double m02 = PIVOT_X + (double) LEFT;
+        double m12 = PIVOT_Y + (HEIGHT - height);
+        m02 = -PIVOT_X * m00 + -PIVOT_Y * m01 + m02;
+        m12 = -PIVOT_X * m10 + -PIVOT_Y * m11 + m12;
+        m02 = 0.0 * m00 + OFFSET_Y * m01 + m02;
+        m12 = 0.0 * m10 + OFFSET_Y * m11 + m12;
+
+        for (int i = 0; i < XS.length; ++i) {
+            final double x = XS[i];
+            final double y = YS[i];
+            points[2 * i] = (float) (m00 * x + m01 * y + m02);
+            points[2 * i + 1] = (float) (m10 * x + m11 * y + m12);
+        }
+        transformed = true;
+    }
+
+    //Path2D.intersects for the closed outline under the even-odd rule
+    private boolean intersects(final double x, final double y, final double w,
+            final double h) {
+        final double xmax = x + w;
+        final double ymax = y + h;
+        final double movx = points[0];
+        final double movy = points[1];
+        double curx = movx;
+        double cury = movy;
+        int crossings = 0;
+        for (int i = 1; i < XS.length && crossings != RECT_INTERSECTS; ++i) {
+            final double endx = points[2 * i];
+            final double endy = points[2 * i + 1];
+            crossings = crossings(crossings, x, y, xmax, ymax, curx, cury,
+                    endx, endy);
+            curx = endx;
+            cury = endy;
+        }
+        if (crossings != RECT_INTERSECTS && (curx != movx || cury != movy))
+            crossings = crossings(crossings, x, y, xmax, ymax, curx, cury,
+                    movx, movy);
+        return crossings == RECT_INTERSECTS || (crossings & 2) != 0;
+    }
+
+    //Curve.rectCrossingsForLine: how many times the segment crosses the band
+    //to the right of the rectangle, or RECT_INTERSECTS if it enters it
+    private static int crossings(int crossings, final double rxmin,
+            final double rymin, final double rxmax, final double rymax,
+            final double x0, final double y0, final double x1,
+            final double y1) {
+        if (y0 >= rymax && y1 >= rymax)
+            return crossings;
+        if (y0 <= rymin && y1 <= rymin)
+            return crossings;
+        if (x0 <= rxmin && x1 <= rxmin)
+            return crossings;
+        if (x0 >= rxmax && x1 >= rxmax)
+            return shadow(crossings, rymin, rymax, y0, y1);
+        if ((x0 > rxmin && x0 < rxmax && y0 > rymin && y0 < rymax)
+                || (x1 > rxmin && x1 < rxmax && y1 > rymin && y1 < rymax))
+            return RECT_INTERSECTS;
+
+        double xi0 = x0;
+        if (y0 < rymin)
+            xi0 += ((rymin - y0) * (x1 - x0) / (y1 - y0));
+        else if (y0 > rymax)
+            xi0 += ((rymax - y0) * (x1 - x0) / (y1 - y0));
+        double xi1 = x1;
+        if (y1 < rymin)
+            xi1 += ((rymin - y1) * (x0 - x1) / (y0 - y1));
+        else if (y1 > rymax)
+            xi1 += ((rymax - y1) * (x0 - x1) / (y0 - y1));
+        if (xi0 <= rxmin && xi1 <= rxmin)
+            return crossings;
+        if (xi0 >= rxmax && xi1 >= rxmax)
+            return shadow(crossings, rymin, rymax, y0, y1);
+        return RECT_INTERSECTS;
+    }
+
+    //Counts a segment lying in the band to the right of the rectangle
+    private static int shadow(int crossings, final double rymin,
+            final double rymax, final double y0, final double y1) {
+        if (y0 < y1) {
+            if (y0 <= rymin)
+                ++crossings;
+            if (y1 >= rymax)
+                ++crossings;
+        } else if (y1 < y0) {
+            if (y1 <= rymin)
+                --crossings;
+            if (y0 >= rymax)
+                --crossings;
+        }
+        return crossings;
+    }
+}
@@ -0,0 +1,120 @@
+package flappybirdai;
+
+import static flappybirdai.Pool.INPUTS;
+
+/*
+The flap decisions a network already took, keyed on its inputs rounded down to
+a grid. The first three inputs (bird height, tube height and tube position) are
+each cut into steps of 'quantum' and packed into a long; the fourth is the
+constant bias and is left out. Only networks that are not recurrent may use a
+cache, as their decision depends on nothing but the inputs. Inputs that fall in
+the same cell as earlier ones reuse the decision taken for those, so a coarse
+grid trades exactness for hits.
+
+The cache is set associative: a key may only go in one of the WAYS slots of its
+set, and when those are full the set evicts by clock, skipping (and clearing)
+slots used since the hand last passed them. It never grows past its capacity
+and allocates nothing once made.
+*/
+public class DecisionCache {
+
+    public static final int WAYS = 4;
+
+    private static final int  BITS = 21;        //bits per input in a key
+    private static final long MASK = (1L << BITS) - 1;
+
+    private static final byte USED       = 1;
+    private static final byte REFERENCED = 2;
+    private static final byte FLAP       = 4;
+
+    public final double quantum;
+    private final long[] keys;
+    private final byte[] flags;
+    private final byte[] hands;     //clock hand of each set
+    private final int    sets;
+
+    public long hits;
+    public long misses;
+    public long evictions;
+
+    //A cache of at least 'capacity' decisions, rounded up to a power of two
+    public DecisionCache(final int capacity, final double quantum) {
+        int sets = 1;
+        while (sets * WAYS < capacity)
+            sets <<= 1;
+        this.sets = sets;
+        this.quantum = quantum;
+        keys = new long[sets * WAYS];
+        flags = new byte[sets * WAYS];
+        hands = new byte[sets];
+    }
+
+    //Decides if the bird flaps on this input, from the cache or else from the
+    //network, whose output is then kept. 'output' is scratch space
+    public boolean flap(final Network network, final double[] input,
+            final double[] output) {
+        final long key = key(input);
+        final int set = (int) Seeds.mix(key, 0) & (sets - 1);
+        final int base = set * WAYS;
+        for (int way = base; way < base + WAYS; ++way)
+            if ((flags[way] & USED) != 0 && keys[way] == key) {
+                flags[way] |= REFERENCED;
+                ++hits;
+                return (flags[way] & FLAP) != 0;
+            }
+
+        ++misses;
+        network.evaluate(input, output);
+        final boolean flap = output[0] > 0.5;
+        final int way = victim(set);
+        if ((flags[way] & USED) != 0)
+            ++evictions;
+        keys[way] = key;
+        flags[way] = (byte) (USED | (flap ? FLAP : 0));
+        return flap;
+    }
+
+    //A free slot of the set, or the first one the clock finds unused since
+    //its last pass
+    private int victim(final int set) {
+        final int base = set * WAYS;
+        for (int way = base; way < base + WAYS; ++way)
+            if ((flags[way] & USED) == 0)
+                return way;
+        while (true) {
+            final int way = base + hands[set];
+            hands[set] = (byte) ((hands[set] + 1) % WAYS);
+            if ((flags[way] & REFERENCED) == 0)
+                return way;
+            flags[way] &= ~REFERENCED;
+        }
+    }
+
+    private long key(final double[] input) {
+        long key = 0;
+        for (int k = 0; k < INPUTS - 1; ++k)
+            key |= ((long) Math.floor(input[k] / quantum) & MASK) << (k * BITS);
+        return key;
+    }
+
+    //Starts counting hits, misses and evictions again
+    public void clearCounts() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    //Decisions held
+    public int size() {
+        int size = 0;
+        for (final byte flag : flags)
+            if ((flag & USED) != 0)
+                ++size;
+        return size;
+    }
+
+    //Bytes taken by the slots
+    public long bytes() {
+        return keys.length * 8L + flags.length + hands.length;
+    }
+}
@@ -0,0 +1,74 @@
+package flappybirdai;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+What the window draws of one tick: a copy of the birds, tubes and scores, taken
+by the simulation thread between two ticks so that painting never sees a bird
+half updated. Frames are handed from the simulation thread to the painter and
+back, and their arrays are reused, so taking one allocates nothing once they
+are large enough.
+*/
+class Frame {
+    long sequence = -1;     //ticks played before this frame, -1 for none yet
+    int  ticks;
+    int  score;
+    int  generation;
+    int  population;
+    double bestFitness;
+    double maxFitness;
+
+    int       birds;        //birds alive
+    double[]  heights = new double[0];
+    double[]  angles  = new double[0];
+    Species[] species = new Species[0];
+
+    int      tubes;
+    double[] positions    = new double[0];
+    double[] tubeHeights  = new double[0];
+
+    //Copies the state of the simulation after its last tick
+    void capture(final Simulation simulation, final long sequence) {
+        this.sequence = sequence;
+        ticks = simulation.ticks;
+        score = simulation.score;
+        generation = simulation.pool.generation;
+        population = simulation.pool.population;
+        bestFitness = simulation.best == null ? 0.0
+                : simulation.best.genome.fitness;
+        maxFitness = simulation.pool.maxFitness;
+
+        final List<Bird> birds = simulation.birds;
+        if (heights.length < birds.size()) {
+            heights = new double[birds.size()];
+            angles = new double[birds.size()];
+            species = new Species[birds.size()];
+        }
+        int alive = 0;
+        for (int i = 0; i < birds.size(); ++i) {
+            final Bird bird = birds.get(i);
+            if (bird.dead)
+                continue;
+            heights[alive] = bird.height;
+            angles[alive] = bird.angle;
+            species[alive] = bird.species;
+            ++alive;
+        }
+        //Let go of the species of birds no longer there
+        if (this.birds > alive)
+            Arrays.fill(species, alive, this.birds, null);
+        this.birds = alive;
+
+        final List<Tube> tubes = simulation.tubes;
+        if (positions.length < tubes.size()) {
+            positions = new double[tubes.size()];
+            tubeHeights = new double[tubes.size()];
+        }
+        for (int i = 0; i < tubes.size(); ++i) {
+            positions[i] = tubes.get(i).position;
+            tubeHeights[i] = tubes.get(i).height;
+        }
+        this.tubes = tubes.size();
+    }
+}
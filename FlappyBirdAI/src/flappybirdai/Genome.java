@@ -1,41 +1,232 @@
 package flappybirdai;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import static flappybirdai.Pool.INPUTS;
+import static flappybirdai.Pool.OUTPUTS;
+
+import java.util.Random;
 
 /*
 The neural network of each bird. Describes the nodes of the bird and the links
 betwen them. Can mutate the nodes using random numbers among the population.
+The genes are kept in ascending innovation order, so that comparing two genomes
+is a single merge pass over both lists. They are stored in one array of ints,
+as three columns, rather than as Synapse objects: a gene takes 12 bytes instead
+of 44, and the merge reads the innovation numbers in a row. The mutation rates
+are steps from the pool's, a byte each in one long, so that a genome of few
+genes is not mostly fixed fields. Neuron ids are stored as chars. Hidden
+neurons are numbered by the pool, so that genomes splitting the same gene get
+the same neuron, see Innovations.
 */
-public class Genome extends Pool{
-    public final List<Synapse>  genes = new ArrayList<Synapse>();
+public class Genome {
+    public static final int MAX_NEURON = Character.MAX_VALUE;
+
+    //Columns of 'genes', an int per gene each: the innovation number below
+    //the enabled bit, the input and output neurons as the high and low chars,
+    //and the weight's bits
+    public static final int GENE = 3;
+    private static final int ON = 1 << 31;
+
+    //0.95 to the power of every step a mutation rate can take, -128 to 127
+    private static final double[] STEPS = new double[256];
+    static {
+        for (int i = 0; i < STEPS.length; ++i)
+            STEPS[i] = Math.pow(0.95, i - 128);
+    }
+
+    public final Pool pool;                 //population the genome belongs to
+
+    //The genes: the first 'size' of them, in innovation order, in columns as
+    //long as a third of the array
+    public int   size = 0;
+    public int[] genes;
+
     public double fitness = 0.0;
     public int maxNeuron = 0;
     public int globalRank = 0;
-    public final double[] mutationRates = new double[] { CONN_MUTATION,
-            LINK_MUTATION, BIAS_MUTATION, NODE_MUTATION, ENABLE_MUTATION,
-            DISABLE_MUTATION, STEP_SIZE };
-    public Map<Integer, Neuron> network = null;
+    //Steps of the mutation rates from the pool's, a signed byte each from the
+    //lowest: connections, link, bias, node, enable, disable and step size
+    public long rates = 0;
+    public Network network = null;
+    public boolean dirty = true;            //genes changed since the network was compiled
+
+    public Genome(final Pool pool) {
+        this(pool, 4);
+    }
+
+    //A genome with room for 'capacity' genes before its arrays grow
+    public Genome(final Pool pool, final int capacity) {
+        this.pool = pool;
+        genes = new int[GENE * capacity];
+    }
 
     @Override
     public Genome clone() {
-        final Genome genome = new Genome();
-        for (final Synapse gene : genes)
-            genome.genes.add(gene.clone());
+        return copy(pool);
+    }
+
+    //Copies the genome into the given pool, e.g. to move it to another island
+    public Genome copy(final Pool pool) {
+        final Genome genome = pool.newGenome(size);
+        genome.size = size;
+        final int from = genes.length / GENE;
+        final int to = genome.genes.length / GENE;
+        for (int column = 0; column < GENE; ++column)
+            System.arraycopy(genes, column * from, genome.genes, column * to,
+                    size);
         genome.maxNeuron = maxNeuron;
-        for (int i = 0; i < 7; ++i)
-            genome.mutationRates[i] = mutationRates[i];
+        genome.rates = rates;
         return genome;
     }
 
+    //Empties a genome taken back from the pool, keeping its arrays and its
+    //network to be reused
+    void reset() {
+        size = 0;
+        fitness = 0.0;
+        maxNeuron = 0;
+        globalRank = 0;
+        dirty = true;
+        rates = 0;
+    }
+
+    public int input(final int gene) {
+        return genes[genes.length / GENE + gene] >>> 16;
+    }
+
+    public int output(final int gene) {
+        return genes[genes.length / GENE + gene] & 0xFFFF;
+    }
+
+    //Changes the neurons of a gene, leaving the network as it is: for
+    //renumbering neurons, which does not change what the network computes
+    public void setNeurons(final int gene, final int input, final int output) {
+        genes[genes.length / GENE + gene] = input << 16 | output;
+    }
+
+    public int innovation(final int gene) {
+        return genes[gene] & ~ON;
+    }
+
+    public void setInnovation(final int gene, final int innovation) {
+        genes[gene] = genes[gene] & ON | innovation;
+    }
+
+    public float weight(final int gene) {
+        return Float.intBitsToFloat(genes[2 * (genes.length / GENE) + gene]);
+    }
+
+    public void setWeight(final int gene, final float weight) {
+        dirty = true;
+        genes[2 * (genes.length / GENE) + gene] =
+                Float.floatToRawIntBits(weight);
+    }
+
+    public boolean isEnabled(final int gene) {
+        return genes[gene] < 0;
+    }
+
+    public void setEnabled(final int gene, final boolean on) {
+        dirty = true;
+        if (on)
+            genes[gene] |= ON;
+        else
+            genes[gene] &= ~ON;
+    }
+
+    //Mutation rate i, in the order of Pool.mutationRates: the pool's rate
+    //times 0.95 to the power of the genome's step for it
+    public double rate(final int i) {
+        return pool.mutationRates[i] * STEPS[(byte) (rates >> 8 * i) + 128];
+    }
+
+    //Moves the step of rate i by 'by', within a byte
+    private void step(final int i, final int by) {
+        final int step = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE,
+                (byte) (rates >> 8 * i) + by));
+        rates = rates & ~(0xFFL << 8 * i) | (step & 0xFFL) << 8 * i;
+    }
+
+    //The gene as an object, for code that hands genes around
+    public Synapse gene(final int gene) {
+        final Synapse synapse = new Synapse();
+        synapse.input = input(gene);
+        synapse.output = output(gene);
+        synapse.weight = weight(gene);
+        synapse.enabled = isEnabled(gene);
+        synapse.innovation = innovation(gene);
+        return synapse;
+    }
+
+    public void addGene(final Synapse gene) {
+        addGene(gene.input, gene.output, gene.weight, gene.enabled,
+                gene.innovation);
+    }
+
+    //Copies gene 'gene' of the other genome to this one
+    public void addGene(final Genome genome, final int gene) {
+        addGene(genome.input(gene), genome.output(gene), genome.weight(gene),
+                genome.isEnabled(gene), genome.innovation(gene));
+    }
+
+    //Adds a gene where its innovation number belongs. New genes usually
+    //have the highest number, so the search starts from the end
+    public void addGene(final int input, final int output, final double weight,
+            final boolean on, final int innovation) {
+        if (GENE * size == genes.length)
+            grow(size + (size >> 3) + 4);
+        final int column = genes.length / GENE;
+        int i = size;
+        while (i > 0 && innovation(i - 1) > innovation)
+            --i;
+        if (i < size)
+            for (int c = 0; c < GENE; ++c)
+                System.arraycopy(genes, c * column + i, genes,
+                        c * column + i + 1, size - i);
+        genes[i] = on ? innovation | ON : innovation;
+        genes[column + i] = input << 16 | output;
+        genes[2 * column + i] = Float.floatToRawIntBits((float) weight);
+        dirty = true;
+        ++size;
+    }
+
+    //Makes room for 'capacity' genes
+    public void grow(final int capacity) {
+        if (GENE * capacity <= genes.length)
+            return;
+        final int column = genes.length / GENE;
+        final int[] grown = new int[GENE * capacity];
+        for (int c = 0; c < GENE; ++c)
+            System.arraycopy(genes, c * column, grown, c * capacity, size);
+        genes = grown;
+    }
+
+    //Puts the genes back in innovation order after numbers were changed.
+    //They are nearly in order, so this is an insertion sort
+    public void sortGenes() {
+        final int column = genes.length / GENE;
+        for (int i = 1; i < size; ++i) {
+            final int numbered = genes[i];
+            final int neurons = genes[column + i];
+            final int weight = genes[2 * column + i];
+            final int innovation = numbered & ~ON;
+            int j = i;
+            for (; j > 0 && (genes[j - 1] & ~ON) > innovation; --j) {
+                genes[j] = genes[j - 1];
+                genes[column + j] = genes[column + j - 1];
+                genes[2 * column + j] = genes[2 * column + j - 1];
+            }
+            genes[j] = numbered;
+            genes[column + j] = neurons;
+            genes[2 * column + j] = weight;
+        }
+    }
+
     //Tells if there's a link from input to output in neurons
-    public boolean containsLink(final Synapse link) {
-        for (final Synapse gene : genes)
-            if (gene.input == link.input && gene.output == link.output)
+    public boolean containsLink(final int input, final int output) {
+        final int neurons = input << 16 | output;
+        final int column = genes.length / GENE;
+        for (int i = column; i < column + size; ++i)
+            if (genes[i] == neurons)
                 return true;
         return false;
     }
@@ -43,248 +234,275 @@ public class Genome extends Pool{
     //Shows the number of disjointed neurons
     public double disjoint(final Genome genome) {
         double disjointGenes = 0.0;
-        search: for (final Synapse gene : genes) {
-            for (final Synapse otherGene : genome.genes)
-                if (gene.innovation == otherGene.innovation)
-                    continue search;
-            ++disjointGenes;
+        int j = 0;
+        for (int i = 0; i < size; ++i) {
+            final int innovation = innovation(i);
+            while (j < genome.size && genome.innovation(j) < innovation)
+                ++j;
+            if (j == genome.size || genome.innovation(j) != innovation)
+                ++disjointGenes;
         }
-        return disjointGenes / Math.max(genes.size(), genome.genes.size());
+        return disjointGenes / Math.max(size, genome.size);
     }
 
     //Returns the output, which determines if the bird should flap
     public double[] evaluateNetwork(final double[] input) {
-        
-        //Get values of each input (in this case 4)
-        for (int i = 0; i < INPUTS; ++i)
-            network.get(i).value = input[i];
-
-        
-        for (final Map.Entry<Integer, Neuron> entry : network.entrySet()) {
-            if (entry.getKey() < INPUTS + OUTPUTS)
-                continue;
-            final Neuron neuron = entry.getValue();
-            double sum = 0.0;
-            
-            //Tally the sum of the Synapse weight * input
-            for (final Synapse incoming : neuron.inputs) {
-                final Neuron other = network.get(incoming.input);
-                sum += incoming.weight * other.value;
-            }
-            
-            //Take the sigmoid of the sum
-            if (!neuron.inputs.isEmpty())
-                neuron.value = Neuron.sigmoid(sum);
-        }
-
-        for (final Map.Entry<Integer, Neuron> entry : network.entrySet()) {
-            if (entry.getKey() < INPUTS || entry.getKey() >= INPUTS + OUTPUTS)
-                continue;
-            final Neuron neuron = entry.getValue();
-            double sum = 0.0;
-            for (final Synapse incoming : neuron.inputs) {
-                final Neuron other = network.get(incoming.input);
-                sum += incoming.weight * other.value;
-            }
-
-            if (!neuron.inputs.isEmpty())
-                neuron.value = Neuron.sigmoid(sum);
-        }
-
         final double[] output = new double[OUTPUTS];
-        
-        //Gets each output (in this case, only 1 - flap)
-        for (int i = 0; i < OUTPUTS; ++i)
-            output[i] = network.get(INPUTS + i).value;
+        network.evaluate(input, output);
         return output;
     }
 
+    //Compiles the enabled genes into the network evaluated every tick, into
+    //the arrays of the previous network when there is one. A genome that did
+    //not change since then, like one that survived the cull, keeps its network
+    //with the values of its neurons cleared
     public void generateNetwork() {
-        network = new HashMap<Integer, Neuron>();
-        for (int i = 0; i < INPUTS; ++i)
-            network.put(i, new Neuron());
-        for (int i = 0; i < OUTPUTS; ++i)
-            network.put(INPUTS + i, new Neuron());
-
-        Collections.sort(genes, new Comparator<Synapse>() {
+        if (network != null && !dirty) {
+            network.clear();
+            pool.networkHits.incrementAndGet();
+            return;
+        }
+        if (network == null)
+            network = new Network(this);
+        else
+            network.compile(this);
+        network.compileAfter = pool.compileAfter;
+        dirty = false;
+        pool.networkMisses.incrementAndGet();
+    }
 
-            @Override
-            public int compare(final Synapse o1, final Synapse o2) {
-                return o1.output - o2.output;
-            }
-        });
-        for (final Synapse gene : genes)
-            if (gene.enabled) {
-                if (!network.containsKey(gene.output))
-                    network.put(gene.output, new Neuron());
-                final Neuron neuron = network.get(gene.output);
-                neuron.inputs.add(gene);
-                if (!network.containsKey(gene.input))
-                    network.put(gene.input, new Neuron());
-            }
+    //Mutate with the pool's random numbers
+    public void mutate() {
+        mutate(new Breeding(pool));
     }
 
     //Mutate 
-    public void mutate() {
+    public void mutate(final Breeding breeding) {
+        final Random rnd = breeding.rnd;
         
-        //Gives each mutation rate a 50/50 chance of being 0.95 or 1.05263
+        //Gives each mutation rate a 50/50 chance of being 0.95 or 1/0.95
         for (int i = 0; i < 7; ++i)
-            mutationRates[i] *= rnd.nextBoolean() ? 0.95 : 1.05263;
+            step(i, rnd.nextBoolean() ? 1 : -1);
 
-        if (rnd.nextDouble() < mutationRates[0])
-            mutatePoint();
+        if (rnd.nextDouble() < rate(0))
+            mutatePoint(rnd);
 
-        double prob = mutationRates[1];
+        double prob = rate(1);
         while (prob > 0) {
             if (rnd.nextDouble() < prob)
-                mutateLink(false);
+                mutateLink(false, breeding);
             --prob;
         }
 
-        prob = mutationRates[2];
+        prob = rate(2);
         while (prob > 0) {
             if (rnd.nextDouble() < prob)
-                mutateLink(true);
+                mutateLink(true, breeding);
             --prob;
         }
 
-        prob = mutationRates[3];
+        prob = rate(3);
         while (prob > 0) {
             if (rnd.nextDouble() < prob)
-                mutateNode();
+                mutateNode(breeding);
             --prob;
         }
 
-        prob = mutationRates[4];
+        prob = rate(4);
         while (prob > 0) {
             if (rnd.nextDouble() < prob)
-                mutateEnableDisable(true);
+                mutateEnableDisable(true, rnd);
             --prob;
         }
 
-        prob = mutationRates[5];
+        prob = rate(5);
         while (prob > 0) {
             if (rnd.nextDouble() < prob)
-                mutateEnableDisable(false);
+                mutateEnableDisable(false, rnd);
             --prob;
         }
     }
 
-    public void mutateEnableDisable(final boolean enable) {
-        final List<Synapse> candidates = new ArrayList<Synapse>();
-        for (final Synapse gene : genes)
-            if (gene.enabled != enable)
-                candidates.add(gene);
+    public void mutateEnableDisable(final boolean enable, final Random rnd) {
+        int candidates = 0;
+        for (int i = 0; i < size; ++i)
+            if (isEnabled(i) != enable)
+                ++candidates;
 
-        if (candidates.isEmpty())
+        if (candidates == 0)
             return;
 
-        final Synapse gene = candidates.get(rnd.nextInt(candidates.size()));
-        gene.enabled = !gene.enabled;
+        int pick = rnd.nextInt(candidates);
+        for (int i = 0; i < size; ++i)
+            if (isEnabled(i) != enable && pick-- == 0) {
+                setEnabled(i, !isEnabled(i));
+                return;
+            }
     }
 
     //Creates a new link with different weights
-    public void mutateLink(final boolean forceBias) {
+    public void mutateLink(final boolean forceBias, final Breeding breeding) {
+        final Random rnd = breeding.rnd;
         
         //Chooses 2 random neurons
-        final int neuron1 = randomNeuron(false, true);
-        final int neuron2 = randomNeuron(true, false);
+        int input = randomNeuron(false, true, rnd);
+        final int output = randomNeuron(true, false, rnd);
 
-        //Creates a link between the two neurons
-        final Synapse newLink = new Synapse();
-        newLink.input = neuron1;
-        newLink.output = neuron2;
-        
         if (forceBias)
-            newLink.input = INPUTS - 1;
+            input = INPUTS - 1;
 
-        if (containsLink(newLink))
+        if (containsLink(input, output))
             return;
 
-        newLink.innovation = ++Pool.innovation;
-        newLink.weight = rnd.nextDouble() * 4.0 - 2.0;
+        final int innovation = breeding.innovation(input, output,
+                Innovations.LINK);
+        final double weight = rnd.nextDouble() * 4.0 - 2.0;
 
         //Add the link to the gene
-        genes.add(newLink);
+        addGene(input, output, weight, true, innovation);
     }
 
     //Mutates the node (for evolution) 
-    public void mutateNode() {
-        if (genes.isEmpty())
+    public void mutateNode(final Breeding breeding) {
+        final Random rnd = breeding.rnd;
+        if (size == 0)
             return;
 
         //If gene is not enabled, do not mutate. Otherwise, disable then continue
-        final Synapse gene = genes.get(rnd.nextInt(genes.size()));
-        if (!gene.enabled)
+        final int gene = rnd.nextInt(size);
+        if (!isEnabled(gene))
             return;
-        gene.enabled = false;
-
-        //Node added, increment max number of neurons
-        ++maxNeuron;
+        final int neuron = breeding.neuron(this, innovation(gene));
+        if (neuron < 0)
+            return;
+        setEnabled(gene, false);
+        final int input = input(gene);
+        final int output = output(gene);
+        final double weight = weight(gene);
+
+        addGene(input, neuron, 1.0, true,
+                breeding.innovation(input, neuron, Innovations.NODE));
+        addGene(neuron, output, weight, true,
+                breeding.innovation(neuron, output, Innovations.NODE));
+    }
 
-        final Synapse gene1 = gene.clone();
-        gene1.output = maxNeuron;
-        gene1.weight = 1.0;
-        gene1.innovation = ++Pool.innovation;
-        gene1.enabled = true;
-        genes.add(gene1);
+    //Whether a gene of the genome starts or ends at the neuron
+    public boolean containsNeuron(final int neuron) {
+        for (int i = 0; i < size; ++i)
+            if (input(i) == neuron || output(i) == neuron)
+                return true;
+        return false;
+    }
 
-        final Synapse gene2 = gene.clone();
-        gene2.input = maxNeuron;
-        gene2.innovation = ++Pool.innovation;
-        gene2.enabled = true;
-        genes.add(gene2);
+    //A hidden neuron id the genome does not use, for when the pool has none
+    //left to give. -1 if the genome uses them all
+    int unusedNeuron() {
+        if (maxNeuron + 1 < Breeding.PENDING_NEURON)
+            return Math.max(maxNeuron + 1, INPUTS + OUTPUTS);
+        final boolean[] used = new boolean[Breeding.PENDING_NEURON];
+        for (int i = 0; i < size; ++i) {
+            if (input(i) < used.length)
+                used[input(i)] = true;
+            if (output(i) < used.length)
+                used[output(i)] = true;
+        }
+        for (int neuron = INPUTS + OUTPUTS; neuron < used.length; ++neuron)
+            if (!used[neuron])
+                return neuron;
+        return -1;
     }
 
     //Randomly adjust the weights for each node
-    public void mutatePoint() {
-        for (final Synapse gene : genes)
-            if (rnd.nextDouble() < PERTURBATION)
-                gene.weight += rnd.nextDouble() * mutationRates[6] * 2.0
-                        - mutationRates[6];
+    public void mutatePoint(final Random rnd) {
+        if (size > 0)
+            dirty = true;
+        final double step = rate(6);
+        for (int i = 0; i < size; ++i)
+            if (rnd.nextDouble() < pool.perturbation)
+                setWeight(i, (float) (weight(i) + (rnd.nextDouble() * step
+                        * 2.0 - step)));
             else
-                gene.weight = rnd.nextDouble() * 4.0 - 2.0;
+                setWeight(i, (float) (rnd.nextDouble() * 4.0 - 2.0));
     }
 
-    public int randomNeuron(final boolean nonInput, final boolean nonOutput) {
-        final List<Integer> neurons = new ArrayList<Integer>();
-
-        if (!nonInput)
-            for (int i = 0; i < INPUTS; ++i)
-                neurons.add(i);
-
-        if (!nonOutput)
-            for (int i = 0; i < OUTPUTS; ++i)
-                neurons.add(INPUTS + i);
+    //Picks one of the candidate neurons: the inputs, the outputs, then both
+    //ends of every gene, as allowed. The candidates are counted, then walked
+    //again up to the one picked, so nothing is allocated
+    public int randomNeuron(final boolean nonInput, final boolean nonOutput,
+            final Random rnd) {
+        final int fixed = (nonInput ? 0 : INPUTS) + (nonOutput ? 0 : OUTPUTS);
+        int count = fixed;
+        for (int i = 0; i < size; ++i) {
+            if (candidate(input(i), nonInput, nonOutput))
+                ++count;
+            if (candidate(output(i), nonInput, nonOutput))
+                ++count;
+        }
 
-        for (final Synapse gene : genes) {
-            if ((!nonInput || gene.input >= INPUTS)
-                    && (!nonOutput || gene.input >= INPUTS + OUTPUTS))
-                neurons.add(gene.input);
-            if ((!nonInput || gene.output >= INPUTS)
-                    && (!nonOutput || gene.output >= INPUTS + OUTPUTS))
-                neurons.add(gene.output);
+        int pick = rnd.nextInt(count);
+        if (pick < fixed)
+            return nonInput ? INPUTS + pick : pick;
+        pick -= fixed;
+        for (int i = 0; ; ++i) {
+            if (candidate(input(i), nonInput, nonOutput) && pick-- == 0)
+                return input(i);
+            if (candidate(output(i), nonInput, nonOutput) && pick-- == 0)
+                return output(i);
         }
+    }
 
-        return neurons.get(rnd.nextInt(neurons.size()));
+    private static boolean candidate(final int neuron, final boolean nonInput,
+            final boolean nonOutput) {
+        return (!nonInput || neuron >= INPUTS)
+                && (!nonOutput || neuron >= INPUTS + OUTPUTS);
     }
 
+    //Tells if the genomes are close enough to be of the same species, going
+    //through both gene lists once for disjoint() and weights() together. It
+    //runs for every bird against many species, so it reads the columns of
+    //both arrays directly
     public boolean sameSpecies(final Genome genome) {
-        final double dd = DELTA_DISJOINT * disjoint(genome);
-        final double dw = DELTA_WEIGHTS * weights(genome);
-        return dd + dw < DELTA_THRESHOLD;
+        final int[] mine = genes;
+        final int[] theirs = genome.genes;
+        final int weights = 2 * (mine.length / GENE);
+        final int other = 2 * (theirs.length / GENE);
+        final int end = genome.size;
+        double disjointGenes = 0.0;
+        double sum = 0.0;
+        double coincident = 0.0;
+        int j = 0;
+        for (int i = 0; i < size; ++i) {
+            final int innovation = mine[i] & ~ON;
+            while (j < end && (theirs[j] & ~ON) < innovation)
+                ++j;
+            if (j < end && (theirs[j] & ~ON) == innovation) {
+                sum += Math.abs(
+                        (double) Float.intBitsToFloat(mine[weights + i])
+                        - Float.intBitsToFloat(theirs[other + j]));
+                ++coincident;
+            } else
+                ++disjointGenes;
+        }
+        final double dd = pool.deltaDisjoint
+                * (disjointGenes / Math.max(size, genome.size));
+        final double dw = pool.deltaWeights * (sum / coincident);
+        return dd + dw < pool.deltaThreshold;
     }
 
+    //Average weight difference of the genes both genomes have
     public double weights(final Genome genome) {
         double sum = 0.0;
         double coincident = 0.0;
-        search: for (final Synapse gene : genes)
-            for (final Synapse otherGene : genome.genes)
-                if (gene.innovation == otherGene.innovation) {
-                    sum += Math.abs(gene.weight - otherGene.weight);
-                    ++coincident;
-                    continue search;
-                }
+        int j = 0;
+        for (int i = 0; i < size; ++i) {
+            final int innovation = innovation(i);
+            while (j < genome.size && genome.innovation(j) < innovation)
+                ++j;
+            if (j < genome.size && genome.innovation(j) == innovation) {
+                sum += Math.abs((double) weight(i) - genome.weight(j));
+                ++coincident;
+            }
+        }
         return sum / coincident;
     }
 }
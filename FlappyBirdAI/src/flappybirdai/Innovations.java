@@ -0,0 +1,87 @@
+package flappybirdai;
+
+import java.util.Arrays;
+
+/*
+The structural changes made during a generation and the innovation numbers they
+got, so that every genome adding the same link in the same generation gets the
+same number for it. A gene split by a new neuron is keyed by its own innovation
+number, as in NEAT, and gets a neuron id from the pool: every genome splitting
+that gene in the generation gets the same neuron, so the links around it get
+the same numbers too. Keyed by the link's input, output and kind, or by the
+split gene, in an open-addressing table of longs, with no boxing. The methods are synchronized,
+so one registry can be shared by threads breeding at the same time.
+*/
+public class Innovations {
+
+    public static final int LINK = 1;   //a link added between two neurons
+    public static final int NODE = 2;   //one of the two links around a new neuron
+    public static final int SPLIT = 3;  //a gene split by a new neuron
+
+    private final Pool pool;
+    private long[] keys   = new long[64];   //0 for a free slot
+    private int[]  values = new int[64];
+    private int    size   = 0;
+
+    public Innovations(final Pool pool) {
+        this.pool = pool;
+    }
+
+    //Innovation number of the link, taking a new one from the pool the first
+    //time the link is seen in this generation
+    public synchronized int innovation(final int input, final int output,
+            final int kind) {
+        return number(((long) input << 33) ^ ((long) output << 2) ^ kind);
+    }
+
+    //Id of the neuron splitting the gene of that innovation number, taking a
+    //new one from the pool the first time the gene is split in this
+    //generation. -1 if the pool has no id left
+    public synchronized int neuron(final int innovation) {
+        return number(((long) innovation << 2) ^ SPLIT);
+    }
+
+    private int number(final long key) {
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & (keys.length - 1);
+        }
+
+        final int number = (key & 3) == SPLIT ? pool.newNeuron()
+                : pool.newInnovation();
+        if (number < 0)
+            return number;
+        keys[slot] = key;
+        values[slot] = number;
+        if (++size * 2 > keys.length)
+            grow();
+        return number;
+    }
+
+    //Forgets the links and splits seen so far, at the start of a generation
+    public synchronized void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    private int slot(final long key) {
+        return (int) (Seeds.mix(key, 0) & (keys.length - 1));
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i)
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0)
+                    slot = (slot + 1) & (keys.length - 1);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+    }
+}
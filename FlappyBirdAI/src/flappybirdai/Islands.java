@@ -0,0 +1,99 @@
+package flappybirdai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Evolves several populations (islands) at once, each on a thread of its own and
+with tubes of its own. Every 'interval' generations an island sends copies of
+its fittest genomes to the next island of the ring, where they take the place
+of the least fit genomes. The handoff goes through one slot per island that is
+swapped atomically, so no island ever waits for another: migrants that arrive
+before the receiver looks replace the ones still waiting. The islands share
+one innovation counter, so genes keep the same number wherever they travel.
+Neuron ids are an island's own, so a genome that arrives gets new ones.
+*/
+public class Islands {
+
+    public int interval = 10;   //generations between two migrations
+    public int migrants = 2;    //genomes sent at each migration
+
+    private final Simulation[]                      islands;
+    private final AtomicReferenceArray<List<Genome>> inboxes;
+    private final long[]                            nanos;  //time each island took
+
+    public Islands(final int count, final long seed, final int maxTicks) {
+        final AtomicInteger counter = new AtomicInteger(Pool.OUTPUTS);
+        islands = new Simulation[count];
+        inboxes = new AtomicReferenceArray<List<Genome>>(count);
+        nanos = new long[count];
+        for (int i = 0; i < count; ++i) {
+            final Pool pool = new Pool() {
+
+                @Override
+                public int newInnovation() {
+                    return counter.incrementAndGet();
+                }
+            };
+            pool.rnd.setSeed(Seeds.mix(seed, 2 * i));
+            islands[i] = new Simulation(pool);
+            islands[i].seed = Seeds.mix(seed, 2 * i + 1);
+            islands[i].maxTicks = maxTicks;
+        }
+    }
+
+    //The island's game and population
+    public Simulation get(final int island) {
+        return islands[island];
+    }
+
+    public int size() {
+        return islands.length;
+    }
+
+    //Seconds the island took for its generations
+    public double seconds(final int island) {
+        return nanos[island] / 1e9;
+    }
+
+    //Evolves every island for the given number of generations
+    public void run(final int generations) throws InterruptedException {
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < islands.length; ++i) {
+            final int island = i;
+            final Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    evolve(island, generations);
+                }
+            }, "island-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+    }
+
+    private void evolve(final int island, final int generations) {
+        final Simulation simulation = islands[island];
+        final Pool pool = simulation.pool;
+        final long start = System.nanoTime();
+        if (pool.species.isEmpty())
+            pool.initializePool();
+        for (int i = 0; i < generations; ++i) {
+            simulation.evaluateGeneration();
+
+            final List<Genome> arrived = inboxes.getAndSet(island, null);
+            if (arrived != null)
+                pool.immigrate(arrived);
+            if (islands.length > 1 && (pool.generation + 1) % interval == 0)
+                inboxes.set((island + 1) % islands.length, pool.top(migrants));
+
+            pool.newGeneration();
+        }
+        nanos[island] += System.nanoTime() - start;
+    }
+}
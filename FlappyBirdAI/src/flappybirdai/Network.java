@@ -0,0 +1,434 @@
+package flappybirdai;
+
+import static flappybirdai.Pool.INPUTS;
+import static flappybirdai.Pool.OUTPUTS;
+
+import java.util.Arrays;
+
+/*
+The compiled form of a genome's neural network. Neurons are renumbered into a
+dense range (inputs, then outputs, then hidden neurons by id) and the enabled
+links are stored CSR-style: for the i-th computed neuron, its incoming links are
+sources/weights[offsets[i] .. offsets[i + 1]). Neurons are computed in
+dependency order, so evaluating a tick is a flat loop with no boxing or hashing.
+A network can be compiled again from another genome. Its arrays are kept when
+they are large enough, so only their first count, count + 1, links and size
+slots are meaningful.
+
+Compiling prunes the structure that cannot change the outputs: hidden neurons
+that reach no output, and hidden neurons no input reaches. The latter always
+hold sigmoid(0) = 0, so the links they feed only ever add zeros. The neurons
+left are computed in the order the whole network would have been, so the
+outputs are the same bit for bit.
+*/
+public class Network {
+    public int      count;      //number of computed neurons
+    public int      links;      //number of enabled links
+    public int      size;       //number of neurons, inputs and outputs included
+    public int[]    neurons = new int[0];       //dense index of each computed neuron, in evaluation order
+    public int[]    offsets = new int[1];       //start of each computed neuron's links, plus one past the end
+    public int[]    sources = new int[0];       //dense index of the neuron each link reads from
+    public double[] weights = new double[0];    //weight of each link
+    public double[] values  = new double[0];    //value of every neuron, kept between ticks
+
+    //Whether compile() leaves out the neurons that cannot change the outputs
+    public boolean prune = true;
+
+    //Whether the sigmoid is interpolated in a table, see Neuron. Taken from
+    //the genome's pool by compile()
+    public boolean fastActivation;
+
+    //Evaluations after which evaluate() runs the network as a class generated
+    //by NetworkCompiler (0 for never). Generating it costs as much as some
+    //thousands of evaluations, so it only pays off for networks that are
+    //evaluated for long, like a champion being replayed
+    public int compileAfter = 0;
+
+    //The network as generated code, reading and writing the same values
+    public interface Compiled {
+        void evaluate(double[] input, double[] output, double[] values);
+    }
+
+    private Compiled compiled;
+    private long     evaluations;
+
+    //Whether a neuron reads one computed after it, which it sees as it was
+    //the tick before. Without such loops the outputs only depend on the
+    //inputs of the tick
+    public boolean recurrent;
+
+    //Decisions already taken, for a network that is not recurrent. Dropped
+    //when the network is compiled again
+    public DecisionCache decisions;
+
+    //Arrays used while compiling, kept per thread so that compiling allocates
+    //nothing once they are large enough
+    private static class Scratch {
+        private int[]     index       = new int[0];
+        private int[]     counts      = new int[0];
+        private int[]     start       = new int[1];
+        private int[]     fill        = new int[0];
+        private int[]     linkSources = new int[0];
+        private double[]  linkWeights = new double[0];
+        private int[]     pending     = new int[0];
+        private int[]     readerStart = new int[1];
+        private int[]     readers     = new int[0];
+        private boolean[] done        = new boolean[0];
+        private boolean[] reach       = new boolean[0];  //neurons with a path to an output
+        private boolean[] fed         = new boolean[0];  //neurons with a path from an input
+        private boolean[] live        = new boolean[0];
+        private int[]     map         = new int[0];      //index of each live neuron once pruned
+        private int[]     stack       = new int[0];
+        private int[]     outStart    = new int[1];
+        private int[]     outs        = new int[0];
+
+        //Makes room for 'size' neurons and 'links' links, clearing what the
+        //compiler counts on being zero
+        private void prepare(final int size, final int links) {
+            if (counts.length < size) {
+                counts = new int[size];
+                start = new int[size + 1];
+                fill = new int[size];
+                pending = new int[size];
+                readerStart = new int[size + 1];
+                done = new boolean[size];
+                reach = new boolean[size];
+                fed = new boolean[size];
+                live = new boolean[size];
+                map = new int[size];
+                stack = new int[size];
+                outStart = new int[size + 1];
+            }
+            if (linkSources.length < links) {
+                linkSources = new int[links];
+                linkWeights = new double[links];
+                readers = new int[links];
+                outs = new int[links];
+            }
+            Arrays.fill(counts, 0, size, 0);
+            Arrays.fill(pending, 0, size, 0);
+            Arrays.fill(readerStart, 0, size + 1, 0);
+            Arrays.fill(done, 0, size, false);
+            Arrays.fill(reach, 0, size, false);
+            Arrays.fill(fed, 0, size, false);
+            Arrays.fill(outStart, 0, size + 1, 0);
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    public Network(final Genome genome) {
+        this(genome, true);
+    }
+
+    public Network(final Genome genome, final boolean prune) {
+        this.prune = prune;
+        compile(genome);
+    }
+
+    //Compiles the genome's enabled genes into this network, reusing its arrays
+    //when they are large enough, and clears the values of its neurons
+    public void compile(final Genome genome) {
+        final Scratch scratch = SCRATCH.get();
+        fastActivation = genome.pool.fastActivation;
+        final int genes = genome.size;
+
+        //Map neuron ids to dense indices. Inputs and outputs keep their ids,
+        //hidden neurons follow in ascending id order
+        int maxId = INPUTS + OUTPUTS - 1;
+        int links = 0;
+        for (int i = 0; i < genes; ++i)
+            if (genome.isEnabled(i)) {
+                maxId = Math.max(maxId, Math.max(genome.input(i),
+                        genome.output(i)));
+                ++links;
+            }
+        if (scratch.index.length < maxId + 1)
+            scratch.index = new int[maxId + 1];
+        final int[] index = scratch.index;
+        Arrays.fill(index, 0, maxId + 1, 0);
+        for (int i = 0; i < genes; ++i)
+            if (genome.isEnabled(i)) {
+                index[genome.input(i)] = 1;
+                index[genome.output(i)] = 1;
+            }
+        for (int i = 0; i < INPUTS + OUTPUTS; ++i)
+            index[i] = i;
+        int size = INPUTS + OUTPUTS;
+        for (int id = INPUTS + OUTPUTS; id <= maxId; ++id)
+            if (index[id] != 0)
+                index[id] = size++;
+        scratch.prepare(size, links);
+
+        //Count the incoming links of every neuron, then bucket the links by
+        //the neuron they feed, keeping the order they have in the genome
+        final int[] counts = scratch.counts;
+        for (int i = 0; i < genes; ++i)
+            if (genome.isEnabled(i))
+                ++counts[index[genome.output(i)]];
+        final int[] start = scratch.start;
+        int computed = 0;
+        start[0] = 0;
+        for (int i = 0; i < size; ++i) {
+            start[i + 1] = start[i] + counts[i];
+            if (counts[i] != 0)
+                ++computed;
+        }
+        final int[] fill = scratch.fill;
+        System.arraycopy(start, 0, fill, 0, size);
+        final int[] linkSources = scratch.linkSources;
+        final double[] linkWeights = scratch.linkWeights;
+        for (int i = 0; i < genes; ++i)
+            if (genome.isEnabled(i)) {
+                final int slot = fill[index[genome.output(i)]]++;
+                linkSources[slot] = index[genome.input(i)];
+                linkWeights[slot] = genome.weight(i);
+            }
+
+        if (neurons.length < computed) {
+            neurons = new int[computed];
+            offsets = new int[computed + 1];
+        }
+        if (sources.length < links) {
+            sources = new int[links];
+            weights = new double[links];
+        }
+        if (values.length < size)
+            values = new double[size];
+        sort(scratch, size, computed, neurons);
+
+        //Renumber the live neurons, then copy the computed ones in the order
+        //sort() gave, with the links they read from live neurons. A neuron
+        //left without links keeps the value 0 it would have computed
+        final boolean[] live = scratch.live;
+        final int[] map = scratch.map;
+        if (prune)
+            prune(scratch, size);
+        else
+            Arrays.fill(live, 0, size, true);
+        int pruned = 0;
+        for (int neuron = 0; neuron < size; ++neuron)
+            if (neuron < INPUTS + OUTPUTS || live[neuron])
+                map[neuron] = pruned++;
+        int link = 0;
+        int count = 0;
+        for (int i = 0; i < computed; ++i) {
+            final int neuron = neurons[i];
+            if (!live[neuron])
+                continue;
+            final int first = link;
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                if (live[linkSources[j]]) {
+                    sources[link] = map[linkSources[j]];
+                    weights[link] = linkWeights[j];
+                    ++link;
+                }
+            if (link == first)
+                continue;
+            neurons[count] = map[neuron];
+            offsets[count] = first;
+            ++count;
+        }
+        offsets[count] = link;
+        this.count = count;
+        this.links = link;
+        this.size = pruned;
+        compiled = null;
+        evaluations = 0;
+        decisions = null;
+        recurrent = loops(scratch);
+        clear();
+    }
+
+    //Tells if a computed neuron reads another computed neuron that comes
+    //later in the order, or itself
+    private boolean loops(final Scratch scratch) {
+        final boolean[] computed = scratch.reach;
+        final boolean[] done = scratch.done;
+        Arrays.fill(computed, 0, size, false);
+        Arrays.fill(done, 0, size, false);
+        for (int i = 0; i < count; ++i)
+            computed[neurons[i]] = true;
+        for (int i = 0; i < count; ++i) {
+            for (int j = offsets[i]; j < offsets[i + 1]; ++j)
+                if (computed[sources[j]] && !done[sources[j]])
+                    return true;
+            done[neurons[i]] = true;
+        }
+        return false;
+    }
+
+    //Marks the neurons that reach an output, walking the links backward from
+    //the outputs, and the neurons an input reaches, walking them forward from
+    //the inputs. Inputs are always live, hidden neurons and outputs are live
+    //when both walks get to them
+    private static void prune(final Scratch scratch, final int size) {
+        final int[] start = scratch.start;
+        final int[] sources = scratch.linkSources;
+        final boolean[] reach = scratch.reach;
+        final boolean[] fed = scratch.fed;
+        final int[] stack = scratch.stack;
+
+        int top = 0;
+        for (int i = INPUTS; i < INPUTS + OUTPUTS; ++i) {
+            reach[i] = true;
+            stack[top++] = i;
+        }
+        while (top > 0) {
+            final int neuron = stack[--top];
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                if (!reach[sources[j]]) {
+                    reach[sources[j]] = true;
+                    stack[top++] = sources[j];
+                }
+        }
+
+        //The links leaving every neuron, to walk them forward
+        final int[] outStart = scratch.outStart;
+        final int[] outs = scratch.outs;
+        for (int neuron = 0; neuron < size; ++neuron)
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                ++outStart[sources[j] + 1];
+        for (int i = 0; i < size; ++i)
+            outStart[i + 1] += outStart[i];
+        final int[] fill = scratch.fill;
+        System.arraycopy(outStart, 0, fill, 0, size);
+        for (int neuron = 0; neuron < size; ++neuron)
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                outs[fill[sources[j]]++] = neuron;
+
+        for (int i = 0; i < INPUTS; ++i) {
+            fed[i] = true;
+            stack[top++] = i;
+        }
+        while (top > 0) {
+            final int neuron = stack[--top];
+            for (int j = outStart[neuron]; j < outStart[neuron + 1]; ++j)
+                if (!fed[outs[j]]) {
+                    fed[outs[j]] = true;
+                    stack[top++] = outs[j];
+                }
+        }
+
+        final boolean[] live = scratch.live;
+        for (int neuron = 0; neuron < size; ++neuron)
+            live[neuron] = neuron < INPUTS || (reach[neuron] && fed[neuron]);
+    }
+
+    //Sets the value of every neuron back to 0, as in a new network
+    public void clear() {
+        Arrays.fill(values, 0, size, 0.0);
+    }
+
+    //Orders the neurons that have incoming links so that each one is computed
+    //after the hidden neurons it reads from. Outputs never feed other neurons,
+    //so they go last. When a loop leaves no neuron ready, the lowest remaining
+    //one is taken and reads the previous tick's value of its loop
+    private static void sort(final Scratch scratch, final int size,
+            final int computed, final int[] order) {
+        final int hidden = INPUTS + OUTPUTS;
+        final int[] start = scratch.start;
+        final int[] sources = scratch.linkSources;
+
+        //For every hidden neuron, count the computed hidden neurons it waits
+        //on and list the neurons that read from it
+        final int[] pending = scratch.pending;
+        final int[] readerStart = scratch.readerStart;
+        for (int neuron = 0; neuron < size; ++neuron)
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                if (waitsOn(start, sources[j])) {
+                    ++pending[neuron];
+                    ++readerStart[sources[j] + 1];
+                }
+        for (int i = 0; i < size; ++i)
+            readerStart[i + 1] += readerStart[i];
+        final int[] readers = scratch.readers;
+        final int[] fill = scratch.fill;
+        System.arraycopy(readerStart, 0, fill, 0, size);
+        for (int neuron = 0; neuron < size; ++neuron)
+            for (int j = start[neuron]; j < start[neuron + 1]; ++j)
+                if (waitsOn(start, sources[j]))
+                    readers[fill[sources[j]]++] = neuron;
+
+        final boolean[] done = scratch.done;
+        int head = 0;
+        int tail = 0;
+        for (int neuron = hidden; neuron < size; ++neuron)
+            if (start[neuron] != start[neuron + 1] && pending[neuron] == 0) {
+                done[neuron] = true;
+                order[tail++] = neuron;
+            }
+
+        int next = hidden;
+        while (tail < computed) {
+            if (head == tail) {
+                while (next < size
+                        && (done[next] || start[next] == start[next + 1]))
+                    ++next;
+                if (next < size) {
+                    done[next] = true;
+                    order[tail++] = next;
+                } else
+                    for (int i = INPUTS; i < hidden; ++i)
+                        if (start[i] != start[i + 1])
+                            order[tail++] = i;
+                continue;
+            }
+            final int neuron = order[head++];
+            for (int j = readerStart[neuron]; j < readerStart[neuron + 1]; ++j) {
+                final int reader = readers[j];
+                if (--pending[reader] == 0 && !done[reader]
+                        && reader >= hidden) {
+                    done[reader] = true;
+                    order[tail++] = reader;
+                }
+            }
+        }
+    }
+
+    //Tells if a link from the given neuron must wait for it to be computed
+    private static boolean waitsOn(final int[] start, final int neuron) {
+        return neuron >= INPUTS + OUTPUTS && start[neuron] != start[neuron + 1];
+    }
+
+    //Runs the network as generated code from now on, unless it has too many
+    //links. Tells if it does
+    public boolean generate() {
+        if (compiled == null)
+            compiled = NetworkCompiler.compile(this);
+        return compiled != null;
+    }
+
+    //Sets the inputs, runs every computed neuron once and copies the outputs
+    public void evaluate(final double[] input, final double[] output) {
+        if (compiled != null) {
+            compiled.evaluate(input, output, values);
+            return;
+        }
+        if (compileAfter > 0 && ++evaluations == compileAfter && generate()) {
+            compiled.evaluate(input, output, values);
+            return;
+        }
+        interpret(input, output);
+    }
+
+    //The loop over the arrays that evaluate() runs until the network is
+    //generated
+    public void interpret(final double[] input, final double[] output) {
+        final double[] values = this.values;
+        System.arraycopy(input, 0, values, 0, INPUTS);
+        for (int i = 0; i < count; ++i) {
+            double sum = 0.0;
+            for (int j = offsets[i]; j < offsets[i + 1]; ++j)
+                sum += weights[j] * values[sources[j]];
+            values[neurons[i]] = Neuron.sigmoid(sum, fastActivation);
+        }
+        System.arraycopy(values, INPUTS, output, 0, OUTPUTS);
+    }
+}
@@ -0,0 +1,325 @@
+package flappybirdai;
+
+import static flappybirdai.Pool.INPUTS;
+import static flappybirdai.Pool.OUTPUTS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Turns a compiled network into a class of its own, whose code is the network's
+loop unrolled: every link is a multiply-add of a constant weight and a fixed
+neuron, with no loop, no index array and no weight array left for the JIT to
+load. HotSpot does not compile methods of 8000 bytes or more, so the neurons
+are spread over static methods below that size, which evaluate calls in turn.
+The class file is written by hand, without branches so that it needs no stack
+map, and defined by a class loader of its own, so it can be unloaded with the
+network it belongs to. The arithmetic is the interpreter's, in the same order,
+so the outputs are the same bit for bit.
+*/
+public class NetworkCompiler {
+
+    //Networks with more links than this are left to the interpreter, which
+    //keeps the constant pool within what a class file can hold
+    public static final int MAX_LINKS = 20000;
+
+    //Networks with more neurons than this are left to the interpreter too:
+    //the code indexes values with sipush, which takes a signed short. An
+    //unpruned network of MAX_LINKS links can have twice as many neurons
+    public static final int MAX_NEURONS = Short.MAX_VALUE;
+
+    //Largest method HotSpot still compiles, less room for the return
+    private static final int METHOD_LIMIT = 7999;
+
+    private static final String NAME      = "flappybirdai/GeneratedNetwork";
+    private static final String INTERFACE = "flappybirdai/Network$Compiled";
+
+    //Constant pool entries every generated class has
+    private static final int THIS_CLASS   = 2;
+    private static final int SUPER_CLASS  = 4;
+    private static final int IMPLEMENTS   = 6;
+    private static final int INIT         = 7;
+    private static final int VOID         = 8;
+    private static final int SUPER_INIT   = 10;
+    private static final int EVALUATE     = 11;
+    private static final int SIGNATURE    = 12;
+    private static final int CODE         = 13;
+    private static final int SIGMOID      = 19;
+    private static final int PART         = 20;    //descriptor of the parts
+    private static final int FIXED        = 21;    //first free entry
+
+    //Defines one class, so that each can be unloaded on its own
+    private static class Loader extends ClassLoader {
+
+        private Loader() {
+            super(NetworkCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(final byte[] bytes) {
+            return defineClass(NAME.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+
+    //Compiles the network, or returns null if it is too large
+    public static Network.Compiled compile(final Network network) {
+        final byte[] bytes = classFile(network);
+        if (bytes == null)
+            return null;
+        try {
+            return (Network.Compiled) new Loader().define(bytes)
+                    .newInstance();
+        } catch (final InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //The class file of a class implementing Network.Compiled for the network,
+    //or null if it has too many links or neurons, or a neuron with too many
+    //links to fit a method
+    static byte[] classFile(final Network network) {
+        if (network.links > MAX_LINKS || network.size > MAX_NEURONS)
+            return null;
+        try {
+            //The weights, each once, as double constants after the parts
+            final Map<Long, Integer> constants = new HashMap<Long, Integer>();
+            final double[] weights = new double[network.links];
+            final int[] entries = new int[network.links];
+            int distinct = 0;
+            for (int j = 0; j < network.links; ++j) {
+                final long bits = Double.doubleToRawLongBits(network.weights[j]);
+                Integer entry = constants.get(bits);
+                if (entry == null) {
+                    entry = distinct;
+                    weights[distinct++] = network.weights[j];
+                    constants.put(bits, entry);
+                }
+                entries[j] = entry;
+            }
+
+            //The code of each neuron, packed into parts
+            final List<byte[]> parts = new ArrayList<byte[]>();
+            final ByteArrayOutputStream part = new ByteArrayOutputStream();
+            for (int i = 0; i < network.count; ++i) {
+                final byte[] neuron = neuron(network, i, entries);
+                if (neuron.length > METHOD_LIMIT)
+                    return null;
+                if (part.size() + neuron.length > METHOD_LIMIT) {
+                    part.write(0xB1);               //return
+                    parts.add(part.toByteArray());
+                    part.reset();
+                }
+                part.write(neuron);
+            }
+            if (part.size() > 0) {
+                part.write(0xB1);
+                parts.add(part.toByteArray());
+            }
+
+            //Constant entries are numbered after the parts, which take three
+            //each, and the code refers to them by their number
+            final int first = FIXED + 3 * parts.size();
+            for (int i = 0; i < parts.size(); ++i)
+                renumber(parts.get(i), first);
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(first + 2 * distinct);
+            utf8(out, NAME);                        //1
+            reference(out, 7, 1);                   //2
+            utf8(out, "java/lang/Object");          //3
+            reference(out, 7, 3);                   //4
+            utf8(out, INTERFACE);                   //5
+            reference(out, 7, 5);                   //6
+            utf8(out, "<init>");                    //7
+            utf8(out, "()V");                       //8
+            pair(out, 12, INIT, VOID);              //9
+            pair(out, 10, SUPER_CLASS, 9);          //10
+            utf8(out, "evaluate");                  //11
+            utf8(out, "([D[D[D)V");                 //12
+            utf8(out, "Code");                      //13
+            utf8(out, "flappybirdai/Neuron");       //14
+            reference(out, 7, 14);                  //15
+            utf8(out, network.fastActivation ? "interpolate" : "exact"); //16
+            utf8(out, "(D)D");                      //17
+            pair(out, 12, 16, 17);                  //18
+            pair(out, 10, 15, 18);                  //19
+            utf8(out, "([D)V");                     //20
+            for (int i = 0; i < parts.size(); ++i) {
+                final int name = FIXED + 3 * i;
+                utf8(out, "part" + i);              //name
+                pair(out, 12, name, PART);          //name and type
+                pair(out, 10, THIS_CLASS, name + 1);    //method
+            }
+            for (int i = 0; i < distinct; ++i) {
+                out.writeByte(6);
+                out.writeDouble(weights[i]);
+            }
+
+            out.writeShort(0x0031);                 //public final super
+            out.writeShort(THIS_CLASS);
+            out.writeShort(SUPER_CLASS);
+            out.writeShort(1);
+            out.writeShort(IMPLEMENTS);
+            out.writeShort(0);                      //no fields
+            out.writeShort(2 + parts.size());
+
+            //public GeneratedNetwork() { super(); }
+            final byte[] init = new byte[] { 0x2A, (byte) 0xB7,
+                    (byte) (SUPER_INIT >> 8), (byte) SUPER_INIT, (byte) 0xB1 };
+            method(out, 0x0001, INIT, VOID, 1, 1, init);
+            method(out, 0x0001, EVALUATE, SIGNATURE, 4, 4,
+                    evaluate(parts.size()));
+            for (int i = 0; i < parts.size(); ++i)
+                method(out, 0x000A, FIXED + 3 * i, PART, 8, 1, parts.get(i));
+            out.writeShort(0);                      //no class attributes
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //evaluate(double[] input, double[] output, double[] values): copies the
+    //inputs into values, runs the parts and copies the outputs out
+    private static byte[] evaluate(final int parts) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream code = new DataOutputStream(bytes);
+        for (int k = 0; k < INPUTS; ++k) {
+            code.writeByte(0x2D);                   //aload_3
+            push(code, k);
+            code.writeByte(0x2B);                   //aload_1
+            push(code, k);
+            code.writeByte(0x31);                   //daload
+            code.writeByte(0x52);                   //dastore
+        }
+        for (int i = 0; i < parts; ++i) {
+            code.writeByte(0x2D);
+            code.writeByte(0xB8);                   //invokestatic
+            code.writeShort(FIXED + 3 * i + 2);
+        }
+        for (int k = 0; k < OUTPUTS; ++k) {
+            code.writeByte(0x2C);                   //aload_2
+            push(code, k);
+            code.writeByte(0x2D);
+            push(code, INPUTS + k);
+            code.writeByte(0x31);
+            code.writeByte(0x52);
+        }
+        code.writeByte(0xB1);                       //return
+        return bytes.toByteArray();
+    }
+
+    //values[neuron] = sigmoid(0.0 + w * values[source] + ...) for the i-th
+    //computed neuron, in a part whose only local is values. The weights are
+    //loaded by their place among the constants, see renumber()
+    private static byte[] neuron(final Network network, final int i,
+            final int[] entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream code = new DataOutputStream(bytes);
+        code.writeByte(0x2A);                       //aload_0
+        push(code, network.neurons[i]);
+        code.writeByte(0x0E);                       //dconst_0
+        for (int j = network.offsets[i]; j < network.offsets[i + 1]; ++j) {
+            code.writeByte(0x14);                   //ldc2_w
+            code.writeShort(entries[j]);
+            code.writeByte(0x2A);
+            push(code, network.sources[j]);
+            code.writeByte(0x31);
+            code.writeByte(0x6B);                   //dmul
+            code.writeByte(0x63);                   //dadd
+        }
+        code.writeByte(0xB8);
+        code.writeShort(SIGMOID);
+        code.writeByte(0x52);
+        return bytes.toByteArray();
+    }
+
+    //Turns the place of each weight loaded by the part into its constant
+    //entry, now that the entry of the first one is known
+    private static void renumber(final byte[] code, final int first) {
+        int pc = 0;
+        while (pc < code.length) {
+            final int op = code[pc] & 0xFF;
+            if (op == 0x14) {
+                final int entry = first + 2
+                        * (((code[pc + 1] & 0xFF) << 8) | (code[pc + 2] & 0xFF));
+                code[pc + 1] = (byte) (entry >> 8);
+                code[pc + 2] = (byte) entry;
+            }
+            pc += length(op);
+        }
+    }
+
+    //Length of an instruction the compiler emits
+    private static int length(final int op) {
+        switch (op) {
+        case 0x10:                                  //bipush
+            return 2;
+        case 0x11:                                  //sipush
+        case 0x14:                                  //ldc2_w
+        case 0xB8:                                  //invokestatic
+            return 3;
+        default:
+            return 1;
+        }
+    }
+
+    //Pushes a non-negative int no greater than MAX_NEURONS
+    private static void push(final DataOutputStream code, final int value)
+            throws IOException {
+        if (value <= 5)
+            code.writeByte(0x03 + value);           //iconst_<n>
+        else if (value <= Byte.MAX_VALUE) {
+            code.writeByte(0x10);                   //bipush
+            code.writeByte(value);
+        } else {
+            code.writeByte(0x11);                   //sipush
+            code.writeShort(value);
+        }
+    }
+
+    private static void method(final DataOutputStream out, final int access,
+            final int name, final int descriptor, final int maxStack,
+            final int maxLocals, final byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                          //no exception table
+        out.writeShort(0);                          //no code attributes
+    }
+
+    private static void utf8(final DataOutputStream out, final String value)
+            throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void reference(final DataOutputStream out, final int tag,
+            final int index) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(index);
+    }
+
+    private static void pair(final DataOutputStream out, final int tag,
+            final int first, final int second) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(first);
+        out.writeShort(second);
+    }
+}
@@ -4,15 +4,26 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
-//Contains the population of birds
-public abstract class Pool {
+/*
+Contains the population of birds. Each Pool is a population of its own, with
+its own random numbers, innovation numbers, species and tuning, so several of
+them can evolve side by side in one process. The constants are the defaults;
+the tuning ones are copied into fields of every pool, which can be changed
+before it breeds.
+*/
+public class Pool {
     public static final int POPULATION = 50;         //50 birds to start with
     public static final int STALE_SPECIES = 15;      //A threshold value for removeStaleSpecies() method
     public static final int INPUTS = 4;              //4 inputs: bird x, bird y, pipe x, pipe y
     public static final int OUTPUTS = 1;             //flap or not to flap
     public static final int TIMEOUT = 20;             
+    public static final int COMPACT_NEURONS = 1 << 13;  //neuron id past which the ids are renumbered
 
     //Values used as thresholds for certain methods, namely in mutations
     public static final double DELTA_DISJOINT = 2.0;
@@ -28,31 +39,177 @@ public abstract class Pool {
     public static final double PERTURBATION = 0.9;
     public static final double CROSSOVER = 0.75;
 
-    //Generates random numbers used to apply mutations
-    public static final Random rnd = new Random();
+    //Birds bred every generation
+    public int population = POPULATION;
 
-    public static final List<Species> species = new ArrayList<>();
-    public static int generation = 0;
-    public static int innovation = OUTPUTS;
-    public static double maxFitness = 0.0;
+    //Tuning of this pool, read while breeding: the staleness a species may
+    //reach, the distance below which genomes share a species, the chance to
+    //perturb a weight rather than pick a new one, and the chance to breed by
+    //crossover
+    public int    staleSpecies   = STALE_SPECIES;
+    public double deltaDisjoint  = DELTA_DISJOINT;
+    public double deltaWeights   = DELTA_WEIGHTS;
+    public double deltaThreshold = DELTA_THRESHOLD;
+    public double perturbation   = PERTURBATION;
+    public double crossover      = CROSSOVER;
+
+    //Mutation rates genomes take steps from, see Genome.rate()
+    public final double[] mutationRates = new double[] { CONN_MUTATION,
+            LINK_MUTATION, BIAS_MUTATION, NODE_MUTATION, ENABLE_MUTATION,
+            DISABLE_MUTATION, STEP_SIZE };
+
+    //Whether genomes dropped by a generation are reused for the next one
+    public boolean recycle = true;
+    private final List<Genome> spares = new ArrayList<Genome>();
+
+    //Threads breeding the children of a generation and comparing them with
+    //the species
+    public int threads = 1;
+    private ForkJoinPool workers;
+
+    //Generates random numbers used to apply mutations. Its state is saved with
+    //the population, see Checkpoint
+    public final Seeds.Resumable rnd = new Seeds.Resumable();
+
+    public final List<Species> species = new ArrayList<Species>();
+    public int generation = 0;
+    public int innovation = OUTPUTS;
+    //Highest hidden neuron id given so far, see newNeuron()
+    public int neuron = INPUTS + OUTPUTS - 1;
+
+    //Links added during the current generation and their numbers
+    public final Innovations innovations = new Innovations(this);
+
+    //Evaluations after which a network runs as generated code, see
+    //Network.compileAfter (0 for never)
+    public int compileAfter = 0;
+
+    //Whether the networks of this pool interpolate the sigmoid in a table,
+    //see Network.fastActivation. Set it before the run
+    public boolean fastActivation = false;
+
+    //Networks reused because their genome did not change, and networks
+    //compiled, by Genome.generateNetwork()
+    public final AtomicLong networkHits = new AtomicLong();
+    public final AtomicLong networkMisses = new AtomicLong();
+    public double maxFitness = 0.0;
+
+    //Numbers a new gene. Populations that trade genomes share one counter so
+    //that their numbers do not clash
+    public int newInnovation() {
+        return ++innovation;
+    }
+
+    //Numbers a new hidden neuron, -1 once every id a char holds is taken. The
+    //ids start over above the genomes bred from at every generation
+    public int newNeuron() {
+        return neuron + 1 < Breeding.PENDING_NEURON ? ++neuron : -1;
+    }
+
+    //A genome of this pool with room for 'capacity' genes. Takes one that was
+    //dropped from the population when there is one, so its arrays and its
+    //network are reused instead of allocated
+    public Genome newGenome(final int capacity) {
+        Genome genome = null;
+        if (recycle)
+            synchronized (spares) {
+                if (!spares.isEmpty())
+                    genome = spares.remove(spares.size() - 1);
+            }
+        if (genome == null)
+            return new Genome(this, capacity);
+        genome.reset();
+        genome.grow(capacity);
+        return genome;
+    }
+
+    //Hands genomes that left the population back for reuse. Nothing may
+    //keep using them
+    public void drop(final List<Genome> genomes) {
+        if (recycle)
+            synchronized (spares) {
+                spares.addAll(genomes);
+            }
+    }
 
     //Adds a species (bird) to the pool
-    public static void addToSpecies(final Genome child) {
-        for (final Species species : Pool.species)
+    public void addToSpecies(final Genome child) {
+        for (final Species species : this.species)
             if (child.sameSpecies(species.genomes.get(0))) {
                 species.genomes.add(child);
                 return;
             }
 
-        final Species childSpecies = new Species();
+        final Species childSpecies = new Species(this);
         childSpecies.genomes.add(child);
         species.add(childSpecies);
     }
 
+    //Adds the children to the species one after the other, as addToSpecies
+    //would. With several threads, each child is first compared with the
+    //species that exist now, all at the same time; only the children that
+    //match none of them are then placed one by one, since they may found
+    //species that the next ones join
+    public void addToSpecies(final List<Genome> children) {
+        if (threads <= 1 || children.size() < 2) {
+            for (final Genome child : children)
+                addToSpecies(child);
+            return;
+        }
+
+        final Genome[] representatives = new Genome[species.size()];
+        for (int i = 0; i < representatives.length; ++i)
+            representatives[i] = species.get(i).genomes.get(0);
+        final int[] matches = new int[children.size()];
+        final int parts = Math.min(children.size(), threads * 4);
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < parts; ++i) {
+            final int from = i * children.size() / parts;
+            final int to = (i + 1) * children.size() / parts;
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    for (int child = from; child < to; ++child) {
+                        matches[child] = -1;
+                        for (int j = 0; j < representatives.length; ++j)
+                            if (children.get(child).sameSpecies(representatives[j])) {
+                                matches[child] = j;
+                                break;
+                            }
+                    }
+                    return null;
+                }
+            });
+        }
+        invoke(tasks);
+
+        //The existing species come first in the list, so a match among them
+        //is the one the sequential scan would have found
+        final List<Species> existing = new ArrayList<Species>(species);
+        for (int i = 0; i < matches.length; ++i)
+            if (matches[i] >= 0)
+                existing.get(matches[i]).genomes.add(children.get(i));
+            else {
+                final Genome child = children.get(i);
+                Species found = null;
+                for (int j = existing.size(); j < species.size(); ++j)
+                    if (child.sameSpecies(species.get(j).genomes.get(0))) {
+                        found = species.get(j);
+                        break;
+                    }
+                if (found == null) {
+                    found = new Species(this);
+                    species.add(found);
+                }
+                found.genomes.add(child);
+            }
+    }
+
     //Selects a certain number of species from the pool. If 'cutToOne' is true, will
     //only take the top.
-    public static void cullSpecies(final boolean cutToOne) {
-        for (final Species species : Pool.species) {
+    public void cullSpecies(final boolean cutToOne) {
+        for (final Species species : this.species) {
             Collections.sort(species.genomes, new Comparator<Genome>() {
 
                 @Override
@@ -66,55 +223,177 @@ public abstract class Pool {
             if (cutToOne)
                 remaining = 1.0;
 
+            drop(species.genomes.subList((int) remaining, Math.max(
+                    (int) remaining, species.genomes.size())));
             while (species.genomes.size() > remaining)
                 species.genomes.remove(species.genomes.size() - 1);
         }
     }
 
-    //Initialize the starting 50 birds
-    public static void initializePool() {
-        for (int i = 0; i < POPULATION; ++i) {
-            final Genome basic = new Genome();
+    //Initialize the starting birds
+    public void initializePool() {
+        innovations.clear();
+        final List<Genome> basics = new ArrayList<Genome>();
+        for (int i = 0; i < population; ++i) {
+            final Genome basic = newGenome(4);
             basic.maxNeuron = INPUTS;
             basic.mutate();
-            addToSpecies(basic);
+            basics.add(basic);
         }
+        addToSpecies(basics);
     }
 
     //Creates a new generation by breeding a population from the birds who achieved
     //a better fitness relative to their population.
-    public static void newGeneration() {
+    public void newGeneration() {
         //Selects all birds that are above a certain fitness threshold
         cullSpecies(false);
         rankGlobally();
         removeStaleSpecies();
         rankGlobally();
-        for (final Species species : Pool.species)
+        for (final Species species : this.species)
             species.calculateAverageFitness();
         removeWeakSpecies();
         final double sum = totalAverageFitness();
-        final List<Genome> children = new ArrayList<Genome>();
-        for (final Species species : Pool.species) {
+
+        //Every child draws on a stream of its own, derived from this seed and
+        //its place among the children
+        final long seed = rnd.nextLong();
+        neuron = highestNeuron();
+        if (neuron >= COMPACT_NEURONS)
+            compactNeurons();
+        innovations.clear();
+        final List<Species> parents = new ArrayList<Species>();
+        for (final Species species : this.species) {
             final double breed = Math
-                    .floor(species.averageFitness / sum * POPULATION) - 1.0;
+                    .floor(species.averageFitness / sum * population) - 1.0;
             for (int i = 0; i < breed; ++i)
-                children.add(species.breedChild());
+                parents.add(species);
         }
+        final List<Genome> children = breed(parents, seed, 0);
         cullSpecies(true);
-        while (children.size() + species.size() < POPULATION) {
-            final Species species = Pool.species
-                    .get(rnd.nextInt(Pool.species.size()));
-            children.add(species.breedChild());
-        }
-        for (final Genome child : children)
-            addToSpecies(child);
+        parents.clear();
+        while (children.size() + parents.size() + species.size() < population)
+            parents.add(this.species.get(rnd.nextInt(this.species.size())));
+        children.addAll(breed(parents, seed, children.size()));
+        addToSpecies(children);
         ++generation;
     }
 
+    //Highest neuron id of the genomes of the pool. New neurons numbered above
+    //it are new to every genome, and the ids follow from the genomes alone,
+    //so a run resumed from a Checkpoint numbers them as it would have
+    public int highestNeuron() {
+        int highest = INPUTS + OUTPUTS - 1;
+        for (final Species species : this.species)
+            for (final Genome genome : species.genomes)
+                highest = Math.max(highest, genome.maxNeuron);
+        return highest;
+    }
+
+    //Renumbers the hidden neurons of the genomes from INPUTS + OUTPUTS up,
+    //leaving out the ids no genome uses. The order of the ids is kept, and
+    //with it the order in which networks and mutations see the neurons, so
+    //the run goes on as it would have with the old ids
+    private void compactNeurons() {
+        final int[] ids = new int[neuron + 1];
+        for (final Species species : this.species)
+            for (final Genome genome : species.genomes)
+                for (int i = 0; i < genome.size; ++i) {
+                    ids[genome.input(i)] = 1;
+                    ids[genome.output(i)] = 1;
+                }
+        neuron = INPUTS + OUTPUTS - 1;
+        for (int id = INPUTS + OUTPUTS; id < ids.length; ++id)
+            if (ids[id] != 0)
+                ids[id] = ++neuron;
+        for (final Species species : this.species)
+            for (final Genome genome : species.genomes)
+                renumber(genome, ids);
+    }
+
+    //Gives the hidden neurons of the genome the ids of the table
+    private static void renumber(final Genome genome, final int[] ids) {
+        genome.maxNeuron = INPUTS + OUTPUTS - 1;
+        for (int i = 0; i < genome.size; ++i) {
+            int input = genome.input(i);
+            int output = genome.output(i);
+            if (input >= INPUTS + OUTPUTS)
+                input = ids[input];
+            if (output >= INPUTS + OUTPUTS)
+                output = ids[output];
+            genome.setNeurons(i, input, output);
+            genome.maxNeuron = Math.max(genome.maxNeuron,
+                    Math.max(input, output));
+        }
+    }
+
+    //Breeds a child from each of the species, on 'threads' threads. The new
+    //genes of the children are then numbered in the order of the list, so the
+    //children are the same whatever the number of threads
+    private List<Genome> breed(final List<Species> parents, final long seed,
+            final int first) {
+        final Genome[] children = new Genome[parents.size()];
+        final Breeding[] breedings = new Breeding[parents.size()];
+        final int parts = Math.min(parents.size(), Math.max(1, threads * 4));
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < parts; ++i) {
+            final int from = i * parents.size() / parts;
+            final int to = (i + 1) * parents.size() / parts;
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    for (int child = from; child < to; ++child) {
+                        breedings[child] = new Breeding(Pool.this,
+                                Seeds.random(Seeds.mix(seed, first + child)));
+                        children[child] = parents.get(child)
+                                .breedChild(breedings[child]);
+                    }
+                    return null;
+                }
+            });
+        }
+        invoke(tasks);
+
+        for (int i = 0; i < children.length; ++i)
+            breedings[i].number(children[i]);
+        final List<Genome> list = new ArrayList<Genome>();
+        Collections.addAll(list, children);
+        return list;
+    }
+
+    //Runs the tasks on 'threads' threads, or on this one if there is just one
+    private void invoke(final List<Callable<Void>> tasks) {
+        if (threads <= 1) {
+            for (final Callable<Void> task : tasks)
+                try {
+                    task.call();
+                } catch (final RuntimeException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            return;
+        }
+
+        if (workers == null || workers.getParallelism() != threads)
+            workers = new ForkJoinPool(threads);
+        for (final Future<Void> result : workers.invokeAll(tasks))
+            try {
+                result.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+    }
+
     //Ranks the population's genomes according to fitness
-    public static void rankGlobally() {
+    public void rankGlobally() {
         final List<Genome> global = new ArrayList<Genome>();
-        for (final Species species : Pool.species)
+        for (final Species species : this.species)
             for (final Genome genome : species.genomes)
                 global.add(genome);
 
@@ -133,11 +412,12 @@ public abstract class Pool {
     }
 
     //Takes the pool and determines if the species' staleness is less than
-    //STALE_SPECIES or if its topFitness is greater or equal to maxFitness. 
+    //staleSpecies or if its topFitness is greater or equal to maxFitness. 
     //Only keeps those that meet this criteria
-    public static void removeStaleSpecies() {
+    public void removeStaleSpecies() {
         final List<Species> survived = new ArrayList<Species>();
-        for (final Species species : Pool.species) {
+        Species top = null;
+        for (final Species species : this.species) {
             Collections.sort(species.genomes, new Comparator<Genome>() {
 
                 @Override
@@ -153,38 +433,125 @@ public abstract class Pool {
             } else
                 ++species.staleness;
 
-            if (species.staleness < STALE_SPECIES
+            if (species.staleness < staleSpecies
                     || species.topFitness >= maxFitness)
                 survived.add(species);
+            if (top == null || species.topFitness > top.topFitness)
+                top = species;
         }
 
+        //The species that reached maxFitness may have been removed as weak
+        //earlier, in which case every species can go stale at once. Keep the
+        //best one so that there is always something to breed from
+        if (survived.isEmpty() && top != null)
+            survived.add(top);
+
+        for (final Species species : this.species)
+            if (!survived.contains(species))
+                drop(species.genomes);
         species.clear();
         species.addAll(survived);
     }
 
     //Remove all birds that did not "survive" by seeing if its fitness is above
     //a certain threshold
-    public static void removeWeakSpecies() {
+    public void removeWeakSpecies() {
         final List<Species> survived = new ArrayList<Species>();
 
         final double sum = totalAverageFitness();
-        for (final Species species : Pool.species) {
+        for (final Species species : this.species) {
             //Breed looks at the fitness in proportion to the population. If it
             //at least 1, add it to the 'survived' list
             final double breed = Math
-                    .floor(species.averageFitness / sum * POPULATION);
+                    .floor(species.averageFitness / sum * population);
             if (breed >= 1.0)
                 survived.add(species);
         }
 
+        //When a single genome is left, every rank is 0 and the shares are not
+        //numbers. Keep the species so that there is something to breed from
+        if (survived.isEmpty())
+            return;
+
+        for (final Species species : this.species)
+            if (!survived.contains(species))
+                drop(species.genomes);
         species.clear();
         species.addAll(survived);
     }
 
+    //Copies of the 'count' fittest genomes of the population, fitness included
+    public List<Genome> top(final int count) {
+        final List<Genome> global = new ArrayList<Genome>();
+        for (final Species species : this.species)
+            global.addAll(species.genomes);
+        Collections.sort(global, new Comparator<Genome>() {
+
+            @Override
+            public int compare(final Genome o1, final Genome o2) {
+                return Double.compare(o2.fitness, o1.fitness);
+            }
+        });
+
+        final List<Genome> top = new ArrayList<Genome>();
+        for (int i = 0; i < Math.min(count, global.size()); ++i) {
+            final Genome copy = global.get(i).copy(this);
+            copy.fitness = global.get(i).fitness;
+            top.add(copy);
+        }
+        return top;
+    }
+
+    //Puts genomes from another population in place of the least fit ones they
+    //beat, keeping their fitness so that they compete in the next breeding
+    public void immigrate(final List<Genome> migrants) {
+        for (final Genome migrant : migrants) {
+            Species worstSpecies = null;
+            Genome worst = null;
+            for (final Species species : this.species)
+                for (final Genome genome : species.genomes)
+                    if (worst == null || genome.fitness < worst.fitness) {
+                        worstSpecies = species;
+                        worst = genome;
+                    }
+            if (worst == null || worst.fitness >= migrant.fitness)
+                continue;
+            worstSpecies.genomes.remove(worst);
+            if (worstSpecies.genomes.isEmpty())
+                species.remove(worstSpecies);
+            drop(Collections.singletonList(worst));
+            final Genome genome = migrant.copy(this);
+            genome.fitness = migrant.fitness;
+            immigrateNeurons(genome);
+            addToSpecies(genome);
+        }
+    }
+
+    //Gives the hidden neurons of a genome from another population new ids of
+    //this one, in the same order, so that they are not taken for the neurons
+    //of this population that have the same ids. Left as they are if this
+    //population has too few ids left
+    private void immigrateNeurons(final Genome genome) {
+        final int[] ids = new int[Math.max(genome.maxNeuron, INPUTS + OUTPUTS) + 1];
+        int count = 0;
+        for (int i = 0; i < genome.size; ++i) {
+            ids[genome.input(i)] = 1;
+            ids[genome.output(i)] = 1;
+        }
+        for (int id = INPUTS + OUTPUTS; id < ids.length; ++id)
+            count += ids[id];
+        if (neuron + count >= Breeding.PENDING_NEURON)
+            return;
+        for (int id = INPUTS + OUTPUTS; id < ids.length; ++id)
+            if (ids[id] != 0)
+                ids[id] = newNeuron();
+        renumber(genome, ids);
+    }
+
     //Average species of the population
-    public static double totalAverageFitness() {
+    public double totalAverageFitness() {
         double total = 0;
-        for (final Species species : Pool.species)
+        for (final Species species : this.species)
             total += species.averageFitness;
         return total;
     }
@@ -0,0 +1,74 @@
+package flappybirdai;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+//Derives independent seeds from a run's seed, so that every generation (or
+//every task within one) gets its own random stream no matter which thread
+//draws from it or in what order
+public class Seeds {
+
+    //Mixes a seed with the number of a stream (the SplitMix64 finalizer)
+    public static long mix(final long seed, final long stream) {
+        long z = seed + (stream + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    //A Random drawing from a SplittableRandom, for code written against
+    //Random. It is not meant to be shared between threads
+    public static Random random(final long seed) {
+        return new Split(seed);
+    }
+
+    //The generator of java.util.Random, drawing the very same numbers from the
+    //same seed, whose state can be read and put back to resume a run where it
+    //stopped. Only next() is reimplemented, so nextGaussian()'s spare value is
+    //not part of the state. It is not meant to be shared between threads
+    public static class Resumable extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND     = 0xBL;
+        private static final long MASK       = (1L << 48) - 1;
+
+        private long state;     //set by setSeed(), which Random's constructor calls
+
+        @Override
+        public synchronized void setSeed(final long seed) {
+            super.setSeed(seed);
+            state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        @Override
+        protected int next(final int bits) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
+        }
+
+        public long state() {
+            return state;
+        }
+
+        public void restore(final long state) {
+            this.state = state & MASK;
+        }
+    }
+
+    private static class Split extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final SplittableRandom split;
+
+        private Split(final long seed) {
+            super(0L);
+            split = new SplittableRandom(seed);
+        }
+
+        @Override
+        protected int next(final int bits) {
+            return split.nextInt() >>> (32 - bits);
+        }
+    }
+}
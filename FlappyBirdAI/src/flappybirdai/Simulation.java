@@ -0,0 +1,464 @@
+package flappybirdai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+The game without any rendering: the birds, the tubes, the ticks, the score and
+the pool they are bred from. Nothing here touches AWT or sleeps, so it runs at
+full speed on machines without a display. FlappyBirdAI draws it on screen and
+Trainer runs it from the command line.
+*/
+public class Simulation {
+
+    //Screen dimensions
+    public static final int WIDTH = 576;           
+    public static final int HEIGHT = 768;   
+
+    //Bird Dimensions
+    public static final int BIRD_WIDTH = 72;       
+    public static final int BIRD_HEIGHT = 52;
+    
+    //Floor Dimensions
+    public static final int FLOOR_OFFSET = 96;
+    public static final int FLOOR_SPEED = 5;
+    
+    //Tube Dimensions
+    public static final int TUBE_WIDTH = 104;
+    public static final int TUBE_HEIGHT = 640;
+    public static final int TUBE_APERTURE = 200;
+
+    //Most tubes that can be on screen at once, at the fastest spawn rate. That
+    //many are made up front so that spawning never allocates
+    private static final int MAX_TUBES = (WIDTH + TUBE_WIDTH) / FLOOR_SPEED / 20 + 2;
+
+    //The tubes of each generation are drawn from a stream seeded by this seed
+    //and the generation, so every bird of a generation meets the same tubes
+    //whether the population is played together or split across threads
+    public long seed = new Random().nextLong();
+
+    //Ends a generation once it has lasted this many ticks (0 for no limit), so
+    //that a bird that never dies does not stall unattended training
+    public int maxTicks = 0;
+
+    //Threads playing a generation in evaluateGeneration(). With more than one, the
+    //population is split into parts that each play the generation's tubes on
+    //their own, which gives the same fitness as playing them together. The
+    //birds, best bird, ticks, score and tubes are then gathered from the parts
+    public int threads = 1;
+
+    //Evaluates the networks in single precision. Flaps may then differ from
+    //the double precision evaluation, which stays the default
+    public boolean singlePrecision = false;
+
+    //Decisions cached per genome evaluated on its own network (0 for none),
+    //and the step its inputs are rounded to, see DecisionCache. Cached
+    //decisions may differ from the network's own on nearby inputs. Not with
+    //singlePrecision, which leaves no network to cache for. The networks
+    //evolved here have few links, and looking a decision up costs more than
+    //most of them take to evaluate: Benchmark decisions trains at about 90k
+    //ticks/s with 4096 entries against 150k without. Hence off by default
+    public int    decisionCache = 0;
+    public double quantum = 1.0 / 1024;
+
+    //Decisions taken from the caches and by the networks over the levels
+    //played, and the most bytes the caches of one level took
+    public long decisionHits;
+    public long decisionMisses;
+    public long decisionBytes;
+
+    //Population the birds are bred from
+    public final Pool pool;
+
+    //Generates the heights of the tubes
+    private final Random rnd = new Random();
+    private ForkJoinPool workers;
+
+    int speed;          //Speed of the game
+    int ticks;          //Number of ticks the current level has had (reset to 0 when all birds are dead)
+    private int ticksTubes;     
+
+    final List<Bird> birds = new ArrayList<Bird>(); //Population of birds
+    final List<Tube> tubes = new ArrayList<Tube>(); //The series of tubes
+    private final List<Tube> spareTubes = new ArrayList<Tube>(); //Tubes that went off screen, to be reused
+
+    Bird   best;        //The best bird of each population (that has travelled the farthest)
+    int    score;       //How many pipes the bird has passed
+    double maxFitness;  //Best fitness reached in this level
+
+    //Tests the birds against the tubes
+    Collision collision = new Collision();
+
+    private BatchEvaluator batch;   //Networks of the current population
+    double[]               inputs;  //Inputs of every bird, one after the other
+    boolean[]              alive;   //Which birds are still alive this tick
+    private boolean[]      flaps;   //Which birds decided to flap this tick
+
+    //Plays a population of its own
+    public Simulation() {
+        this(new Pool());
+    }
+
+    public Simulation(final Pool pool) {
+        this.pool = pool;
+        for (int i = 0; i < MAX_TUBES; ++i)
+            spareTubes.add(new Tube(0));
+    }
+
+    //Breeds the first population and starts its level, for tick(). Headless
+    //runs only breed it, as evaluateGeneration() starts the level itself
+    public void start() {
+        pool.initializePool();
+        initializeGame();
+    }
+
+    //Prepare the inputs for the input Neurons by looing at bird position relative
+    //to pipe position
+    public void eval() {
+        
+        //The tube that is coming next
+        Tube nextTube = null;
+        
+        //Looks at each tube's rightmost position and determines if it is greater than
+        //then: 1/3 Screen width + middle of bird. In essence, it finds the closest 
+        //tube that the bird hasn't crossed yet and sets that as the 'nextTube'
+        for (int i = 0; i < tubes.size(); ++i) {
+            final Tube tube = tubes.get(i);
+            if (tube.position + TUBE_WIDTH > WIDTH / 3 - BIRD_WIDTH / 2
+                    && (nextTube == null || tube.position < nextTube.position))
+                nextTube = tube;
+        }
+        
+        //Looks at each bird. If it isn't dead, will give the proper inputs for each
+        //of its 4 input neurons, packed one bird after the other
+        for (int i = 0; i < birds.size(); ++i) {
+            final Bird bird = birds.get(i);
+            alive[i] = !bird.dead;
+            if (bird.dead)
+                continue;
+
+            final int base = i * Pool.INPUTS;
+            //First input is relative to current bird's height
+            inputs[base] = bird.height / HEIGHT;
+            
+            //If there is no tube in sight, set the input values to defaults...
+            if (nextTube == null) {
+                inputs[base + 1] = 0.5;
+                inputs[base + 2] = 1.0;
+            } 
+            //Otherwise, set the input values to next tube's coordinates
+            else {
+                inputs[base + 1] = nextTube.height / HEIGHT;
+                inputs[base + 2] = nextTube.position / WIDTH;
+            }
+            //Fourth input is set to 1.0, which refers to the pipe gap
+            inputs[base + 3] = 1.0;
+        }
+
+        //Evaluates every network at once. A bird flaps if its output is greater than 0.5
+        batch.evaluate(inputs, alive, flaps);
+        for (int i = 0; i < birds.size(); ++i)
+            if (alive[i] && flaps[i])
+                birds.get(i).flap = true;
+    }
+
+    //Starts the level with the horizontal speed and adding birds to the current
+    //generation
+    public void initializeGame() {
+        //Make a new pool of birds based on the parameters set in the species'
+        //genomes
+        final List<Bird> birds = new ArrayList<Bird>();
+        for (final Species species : pool.species)
+            for (final Genome genome : species.genomes)
+                birds.add(new Bird(species, genome));
+        initializeLevel(birds);
+    }
+
+    //Starts the level of the current generation for the given birds
+    private void initializeLevel(final List<Bird> birds) {
+        speed = 75;
+        ticks = 0;
+        ticksTubes = 0;
+        best = null;
+        score = 0;
+        maxFitness = Double.NEGATIVE_INFINITY;
+        rnd.setSeed(Seeds.mix(seed, pool.generation));
+
+        this.birds.clear();
+        this.birds.addAll(birds);
+        final List<Genome> genomes = new ArrayList<Genome>();
+        for (final Bird bird : birds) {
+            bird.genome.generateNetwork();
+            genomes.add(bird.genome);
+        }
+        spareTubes.addAll(tubes);
+        tubes.clear();
+
+        //Networks of the whole population, evaluated together every tick
+        batch = new BatchEvaluator(genomes, singlePrecision);
+        if (decisionCache > 0)
+            batch.cacheDecisions(decisionCache, quantum);
+        inputs = new double[birds.size() * Pool.INPUTS];
+        alive = new boolean[birds.size()];
+        flaps = new boolean[birds.size()];
+    }
+
+    //Finds the best bird in the group if its fitness is greater than the 
+    //current 'maxFitness'
+    public void learn() {
+        final boolean over = score();
+        if (maxFitness > pool.maxFitness)
+            pool.maxFitness = maxFitness;
+
+        //If all the birds are dead, start a new generation and restart the level
+        if (over) {
+            countDecisions();
+            pool.newGeneration();
+            initializeGame();
+        }
+    }
+
+    //Updates the fitness of the birds still alive. Tells if the level is over:
+    //all the birds are dead or it lasted maxTicks
+    private boolean score() {
+        best = birds.get(0);
+        boolean allDead = true;
+        for (int i = 0; i < birds.size(); ++i) {
+            final Bird bird = birds.get(i);
+            if (bird.dead)
+                continue;
+            allDead = false;
+
+            //Set fitness to -1.0 to begin with, and then adjusts according to
+            //the number of ticks and flaps. Note: the ticks are essentially a marker
+            //for distance travelled as the ticks do not reset to 0 until the level
+            //resets
+            double fitness = ticks - bird.flaps * 1.5;
+            fitness = fitness == 0.0 ? -1.0 : fitness;
+
+            //updates the birds fitness (while still alive)
+            bird.genome.fitness = fitness;
+            if (fitness > maxFitness)
+                maxFitness = fitness;
+
+            //The best bird's fitness is updated as game progresses
+            if (fitness > best.genome.fitness)
+                best = bird;
+        }
+
+        return allDead || (maxTicks > 0 && ticks >= maxTicks);
+    }
+
+    //Updates the game by moving along the map and keeps track if each bird needs
+    //to flap and update its position.
+    public void update() {
+        //Increments the ticks and tube ticks
+        ++ticks;
+        ++ticksTubes;
+
+        //Once ticksTubes is equal to speed, it is time to add a new tube with
+        //random height. ticksTubes is reset to 0
+        if (ticksTubes == speed) {
+            final int height = FLOOR_OFFSET + 100
+                    + rnd.nextInt(HEIGHT - 200 - TUBE_APERTURE - FLOOR_OFFSET);
+            if (spareTubes.isEmpty())
+                tubes.add(new Tube(height));
+            else {
+                final Tube tube = spareTubes.remove(spareTubes.size() - 1);
+                tube.reset(height);
+                tubes.add(tube);
+            }
+            ticksTubes = 0;
+        }
+
+        //Iterates through each tube and determines if it is off screen and needs
+        //to be removed. Determines if the bird has passed the current tube and 
+        //increments the score
+        for (int i = 0; i < tubes.size(); ++i) {
+            final Tube tube = tubes.get(i);
+            tube.position -= FLOOR_SPEED;
+            if (!tube.passed && tube.position + TUBE_WIDTH < WIDTH / 3
+                    - BIRD_WIDTH / 2) {
+                ++score;
+                if (score % 10 == 0) {
+                    speed -= 5;
+                    speed = Math.max(speed, 20);
+                }
+                tube.passed = true;
+            }
+            if (tube.position + TUBE_WIDTH < 0.0) {
+                tubes.remove(i--);
+                spareTubes.add(tube);
+            }
+        }
+
+        //Goes through each alive bird and updates its velocity, angle, position
+        for (int i = 0; i < birds.size(); ++i) {
+            final Bird bird = birds.get(i);
+            
+            //If bird is dead, go to next bird
+            if (bird.dead)
+                continue;
+
+            //If bird 'flap' is true, adjust the velocity and set to false
+            if (bird.flap) {
+                bird.velocity = 10;
+                bird.flap = false;
+                ++bird.flaps;
+            }
+
+            //Adjust the height by adding the current velocity
+            bird.height += bird.velocity;
+            //Decrease the velocity
+            bird.velocity -= 0.98;
+            //Adjust the angle to a limit of 90 degrees
+            bird.angle = 3.0 * bird.velocity;
+            bird.angle = Math.max(-90.0, Math.min(90.0, bird.angle));
+
+            //Make sure bird does not go past the upper bounds of the screen
+            if (bird.height > HEIGHT) {
+                bird.height = HEIGHT;
+                bird.velocity = 0.0;
+                bird.angle = -bird.angle;
+            }
+
+            //If bird hits the floor, kill the bird
+            if (bird.height < FLOOR_OFFSET + BIRD_HEIGHT / 2)
+                bird.dead = true;
+
+            //Places the bird, rotated by its angle, for the collision tests
+            collision.place(bird.height, bird.angle);
+
+            //Goes through each tube and determines if the top 'cielTube' or bottom
+            //'floorTube' hits the bird. If so, the bird dies
+            for (int j = 0; j < tubes.size(); ++j) {
+                final Tube tube = tubes.get(j);
+                if (collision.hits(tube.position,
+                        HEIGHT - tube.height - TUBE_APERTURE - TUBE_HEIGHT,
+                        TUBE_WIDTH, TUBE_HEIGHT)
+                        || collision.hits(tube.position,
+                                HEIGHT - tube.height, TUBE_WIDTH,
+                                TUBE_HEIGHT)) {
+                    bird.dead = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    //Runs one step of the game: evaluate, update, learn
+    public void tick() {
+        eval();
+        update();
+        learn();
+    }
+
+    //Plays the current generation to the end and breeds the next one
+    public void runGeneration() {
+        evaluateGeneration();
+        pool.newGeneration();
+    }
+
+    //Plays the current generation to the end, setting the fitness of every
+    //genome, on 'threads' threads
+    public void evaluateGeneration() {
+        if (threads <= 1) {
+            initializeGame();
+            playLevel();
+            countDecisions();
+        } else {
+            final List<Bird> birds = new ArrayList<Bird>();
+            for (final Species species : pool.species)
+                for (final Genome genome : species.genomes)
+                    birds.add(new Bird(species, genome));
+            if (workers == null || workers.getParallelism() != threads)
+                workers = new ForkJoinPool(threads);
+
+            //More parts than threads, so that threads whose birds die early
+            //take over the parts still left
+            final int parts = Math.min(birds.size(), threads * 4);
+            final List<Callable<Simulation>> tasks = new ArrayList<Callable<Simulation>>();
+            for (int i = 0; i < parts; ++i) {
+                final List<Bird> part = birds.subList(
+                        i * birds.size() / parts,
+                        (i + 1) * birds.size() / parts);
+                tasks.add(new Callable<Simulation>() {
+
+                    @Override
+                    public Simulation call() {
+                        final Simulation simulation = new Simulation(pool);
+                        simulation.seed = seed;
+                        simulation.maxTicks = maxTicks;
+                        simulation.singlePrecision = singlePrecision;
+                        simulation.decisionCache = decisionCache;
+                        simulation.quantum = quantum;
+                        simulation.initializeLevel(part);
+                        simulation.playLevel();
+                        simulation.countDecisions();
+                        return simulation;
+                    }
+                });
+            }
+
+            //The level as it ended, seen from here: every bird, the best of
+            //them, and the tubes and score of the part that lasted longest
+            Simulation longest = null;
+            best = null;
+            maxFitness = Double.NEGATIVE_INFINITY;
+            long cacheBytes = 0;
+            for (final Future<Simulation> result : workers.invokeAll(tasks)) {
+                final Simulation part;
+                try {
+                    part = result.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (final ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                maxFitness = Math.max(maxFitness, part.maxFitness);
+                decisionHits += part.decisionHits;
+                decisionMisses += part.decisionMisses;
+                cacheBytes += part.decisionBytes;
+                if (longest == null || part.ticks > longest.ticks)
+                    longest = part;
+            }
+            decisionBytes = Math.max(decisionBytes, cacheBytes);
+            this.birds.clear();
+            this.birds.addAll(birds);
+            for (final Bird bird : birds)
+                if (best == null || bird.genome.fitness > best.genome.fitness)
+                    best = bird;
+            tubes.clear();
+            if (longest != null) {
+                ticks = longest.ticks;
+                score = longest.score;
+                tubes.addAll(longest.tubes);
+            }
+        }
+        if (maxFitness > pool.maxFitness)
+            pool.maxFitness = maxFitness;
+    }
+
+    //Adds what the decision caches did during the level to the counts
+    private void countDecisions() {
+        if (decisionCache <= 0)
+            return;
+        decisionHits += batch.cacheHits();
+        decisionMisses += batch.cacheMisses();
+        decisionBytes = Math.max(decisionBytes, batch.cacheBytes());
+    }
+
+    //Ticks the level until it is over, without breeding
+    private void playLevel() {
+        do {
+            eval();
+            update();
+        } while (!score());
+    }
+}
@@ -2,26 +2,39 @@ package flappybirdai;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 //Contains the information of each population
-public class Species extends Pool{
+public class Species {
+    public final Pool pool;                 //population the species belongs to
     public final List<Genome> genomes = new ArrayList<Genome>();
     public double topFitness = 0.0;         //bird with the top fitness
     public double averageFitness = 0.0;     //average fitness of population
     public int staleness = 0;               
 
+    public Species(final Pool pool) {
+        this.pool = pool;
+    }
+
     //Returns a bird with a mutation
     public Genome breedChild() {
+        return breedChild(new Breeding(pool));
+    }
+
+    //Returns a bird with a mutation, drawing on the breeding's random numbers.
+    //Only reads the parents, so children can be bred on several threads
+    public Genome breedChild(final Breeding breeding) {
+        final Random rnd = breeding.rnd;
         final Genome child;
-        if (rnd.nextDouble() < CROSSOVER) {
+        if (rnd.nextDouble() < pool.crossover) {
             final Genome g1 = genomes.get(rnd.nextInt(genomes.size()));
             final Genome g2 = genomes.get(rnd.nextInt(genomes.size()));
             
             //the child is set to the crossover of the two genomes
-            child = crossover(g1, g2);
+            child = crossover(g1, g2, rnd);
         } else
             child = genomes.get(rnd.nextInt(genomes.size())).clone();
-        child.mutate();
+        child.mutate(breeding);
         return child;
     }
 
@@ -35,30 +48,34 @@ public class Species extends Pool{
 
     
     //Crosses over the link between to genes
-    public Genome crossover(Genome g1, Genome g2) {
+    public Genome crossover(final Genome g1, final Genome g2) {
+        return crossover(g1, g2, pool.rnd);
+    }
+
+    public Genome crossover(Genome g1, Genome g2, final Random rnd) {
         if (g2.fitness > g1.fitness) {
             final Genome tmp = g1;
             g1 = g2;
             g2 = tmp;
         }
 
-        //Finds the synpases (copies) of two genes
-        final Genome child = new Genome();
-        outerloop: for (final Synapse gene1 : g1.genes) {
-            for (final Synapse gene2 : g2.genes)
-                if (gene1.innovation == gene2.innovation)
-                    if (rnd.nextBoolean() && gene2.enabled) {
-                        child.genes.add(gene2.clone());
-                        continue outerloop;
-                    } else
-                        break;
-            child.genes.add(gene1.clone());
+        //Finds the synpases (copies) of two genes. Both lists are in innovation
+        //order, so the matching gene of g2 is found by walking it alongside
+        final Genome child = pool.newGenome(g1.size);
+        int j = 0;
+        for (int i = 0; i < g1.size; ++i) {
+            final int innovation = g1.innovation(i);
+            while (j < g2.size && g2.innovation(j) < innovation)
+                ++j;
+            if (j < g2.size && g2.innovation(j) == innovation
+                    && rnd.nextBoolean() && g2.isEnabled(j))
+                child.addGene(g2, j);
+            else
+                child.addGene(g1, i);
         }
 
         child.maxNeuron = Math.max(g1.maxNeuron, g2.maxNeuron);
-
-        for (int i = 0; i < 7; ++i)
-            child.mutationRates[i] = g1.mutationRates[i];
+        child.rates = g1.rates;
         return child;
     }
 }
@@ -0,0 +1,77 @@
+package flappybirdai;
+
+import java.util.Arrays;
+
+/*
+What a generation was like once it was played, before the next one is bred
+from it: the fitness of its genomes, its species, the size of its genomes, the
+innovation counter and the time each phase took. Taken on the training thread
+and written out by a StatisticsLog. The training thread only copies the
+fitness of the genomes into a buffer the log hands back; sorting them for the
+median and the other fitness figures are left to the log's writer.
+*/
+public class Statistics {
+    public int    generation;
+    public double maxFitness;
+    public double meanFitness;
+    public double medianFitness;
+    public int[]  speciesSizes;         //genomes in each species
+    public double meanGenes;            //genes per genome
+    public int    innovation;
+    public long   evaluateNanos;        //playing the generation
+    public long   breedNanos;           //breeding the next one
+
+    //The fitness of the genomes, the first 'genomes' values, until summarize()
+    private double[] fitness;
+    private int genomes;
+
+    public Statistics() {
+    }
+
+    //The generation the pool holds, played in 'evaluateNanos', with the
+    //fitness figures left for summarize(). The fitness values go in 'buffer'
+    //when it is large enough
+    public Statistics(final Pool pool, final long evaluateNanos,
+            final double[] buffer) {
+        generation = pool.generation;
+        innovation = pool.innovation;
+        this.evaluateNanos = evaluateNanos;
+        speciesSizes = new int[pool.species.size()];
+        int count = 0;
+        for (int i = 0; i < speciesSizes.length; ++i) {
+            speciesSizes[i] = pool.species.get(i).genomes.size();
+            count += speciesSizes[i];
+        }
+
+        fitness = buffer != null && buffer.length >= count ? buffer
+                : new double[count];
+        genomes = count;
+        long genes = 0;
+        int i = 0;
+        for (final Species species : pool.species)
+            for (final Genome genome : species.genomes) {
+                fitness[i++] = genome.fitness;
+                genes += genome.size;
+            }
+        if (count > 0)
+            meanGenes = (double) genes / count;
+    }
+
+    //Works out the maximum, mean and median fitness from the values taken,
+    //and gives back their buffer, or null when it was done already
+    public double[] summarize() {
+        final double[] buffer = fitness;
+        fitness = null;
+        if (buffer == null || genomes == 0)
+            return buffer;
+        Arrays.sort(buffer, 0, genomes);
+        double sum = 0.0;
+        for (int i = 0; i < genomes; ++i)
+            sum += buffer[i];
+        maxFitness = buffer[genomes - 1];
+        meanFitness = sum / genomes;
+        medianFitness = genomes % 2 == 1 ? buffer[genomes / 2]
+                : (buffer[genomes / 2 - 1] + buffer[genomes / 2]) / 2.0;
+        return buffer;
+    }
+}
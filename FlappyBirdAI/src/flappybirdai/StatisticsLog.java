@@ -0,0 +1,249 @@
+package flappybirdai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Appends the statistics of every generation to a CSV file, a binary file, or
+both, from a thread of its own. The training thread only takes them, with
+snapshot(), and puts them in a bounded queue, and never waits: when the writer falls so far behind that the
+queue is full, the generation is dropped and counted instead. The writer is
+not woken for each generation, which on a busy machine would have it take the
+CPU from training right away, but writes what is queued every second. The
+writer sorts the fitness values for the statistics, then hands their buffer
+back for the next generation. The binary file is little endian:
+
+  int magic "FBST", int version
+  then for each generation:
+    int generation, int innovation, double maxFitness, double meanFitness,
+    double medianFitness, double meanGenes, long evaluateNanos,
+    long breedNanos, int species, then the genomes in each species as ints
+*/
+public class StatisticsLog {
+
+    public static final int VERSION  = 1;
+    public static final int CAPACITY = 1024;   //generations waiting to be written
+    private static final int MAGIC = 0x46425354;       //"FBST"
+    private static final long INTERVAL = 1000000000L;  //nanoseconds between writes
+
+    private static final String HEADER = "generation,max_fitness,mean_fitness,"
+            + "median_fitness,species,species_sizes,mean_genes,innovation,"
+            + "evaluate_ms,breed_ms\n";
+
+    //Generations written, and generations dropped because the queue was full
+    public volatile long written;
+    public long dropped;
+
+    private final BlockingQueue<Statistics> queue = new ArrayBlockingQueue<Statistics>(
+            CAPACITY);
+    //Fitness buffers the writer is done with
+    private final BlockingQueue<double[]> buffers = new ArrayBlockingQueue<double[]>(
+            CAPACITY);
+    private final FileChannel csv;
+    private final FileChannel binary;
+    private final Thread writer;
+    private volatile boolean closing;
+    private volatile IOException failure;
+
+    //A log to the given files, either of which may be null. Existing files
+    //are replaced
+    public StatisticsLog(final File csvFile, final File binaryFile)
+            throws IOException {
+        csv = csvFile == null ? null : open(csvFile);
+        binary = binaryFile == null ? null : open(binaryFile);
+        if (csv != null)
+            write(csv, ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.US_ASCII)));
+        if (binary != null) {
+            final ByteBuffer header = ByteBuffer.allocate(8)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            write(binary, header);
+        }
+
+        writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "statistics");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static FileChannel open(final File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    //The statistics of the generation the pool holds, played in
+    //'evaluateNanos', in a buffer the writer gave back when there is one
+    public Statistics snapshot(final Pool pool, final long evaluateNanos) {
+        return new Statistics(pool, evaluateNanos, buffers.poll());
+    }
+
+    //Hands the statistics to the writer, or drops them if it is too far behind
+    public void offer(final Statistics statistics) {
+        if (!queue.offer(statistics))
+            ++dropped;
+    }
+
+    //Writes what is queued, stops the writer and closes the files
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (csv != null)
+                csv.close();
+        } finally {
+            if (binary != null)
+                binary.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    //Writes the statistics waiting every INTERVAL, until the log is closed
+    private void drain() {
+        final List<Statistics> batch = new ArrayList<Statistics>();
+        final StringBuilder text = new StringBuilder();
+        ByteBuffer bytes = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (true) {
+                //Read before draining, so that what was offered before
+                //close() is written
+                final boolean last = closing;
+                queue.drainTo(batch);
+                text.setLength(0);
+                bytes.clear();
+                for (final Statistics statistics : batch) {
+                    final double[] buffer = statistics.summarize();
+                    if (buffer != null)
+                        buffers.offer(buffer);
+                    if (csv != null)
+                        csv(statistics, text);
+                    if (binary != null) {
+                        final int size = 60 + 4 * statistics.speciesSizes.length;
+                        if (bytes.remaining() < size) {
+                            final ByteBuffer grown = ByteBuffer.allocate(
+                                    2 * bytes.capacity() + size).order(
+                                    ByteOrder.LITTLE_ENDIAN);
+                            bytes.flip();
+                            bytes = grown.put(bytes);
+                        }
+                        binary(statistics, bytes);
+                    }
+                }
+                if (csv != null)
+                    write(csv, ByteBuffer.wrap(text.toString().getBytes(
+                            StandardCharsets.US_ASCII)));
+                if (binary != null) {
+                    bytes.flip();
+                    write(binary, bytes);
+                }
+                written += batch.size();
+                batch.clear();
+                if (last)
+                    return;
+                LockSupport.parkNanos(INTERVAL);
+            }
+        } catch (final IOException e) {
+            //What comes next fills the queue and is dropped
+            failure = e;
+        }
+    }
+
+    private static void csv(final Statistics statistics,
+            final StringBuilder text) {
+        text.append(statistics.generation).append(',');
+        text.append(statistics.maxFitness).append(',');
+        text.append(statistics.meanFitness).append(',');
+        text.append(statistics.medianFitness).append(',');
+        text.append(statistics.speciesSizes.length).append(',');
+        for (int i = 0; i < statistics.speciesSizes.length; ++i)
+            text.append(i == 0 ? "" : " ").append(statistics.speciesSizes[i]);
+        text.append(',');
+        text.append(String.format(Locale.ROOT, "%.2f", statistics.meanGenes))
+                .append(',');
+        text.append(statistics.innovation).append(',');
+        text.append(String.format(Locale.ROOT, "%.3f,%.3f\n",
+                statistics.evaluateNanos / 1e6, statistics.breedNanos / 1e6));
+    }
+
+    private static void binary(final Statistics statistics,
+            final ByteBuffer bytes) {
+        bytes.putInt(statistics.generation).putInt(statistics.innovation);
+        bytes.putDouble(statistics.maxFitness)
+                .putDouble(statistics.meanFitness)
+                .putDouble(statistics.medianFitness)
+                .putDouble(statistics.meanGenes);
+        bytes.putLong(statistics.evaluateNanos).putLong(statistics.breedNanos);
+        bytes.putInt(statistics.speciesSizes.length);
+        for (final int size : statistics.speciesSizes)
+            bytes.putInt(size);
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer bytes)
+            throws IOException {
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+    }
+
+    //Reads back the statistics of a binary log
+    public static List<Statistics> read(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        final ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.allocate((int) channel.size()).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            bytes.flip();
+        } finally {
+            channel.close();
+        }
+
+        try {
+            if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION)
+                throw new IOException(file + " is not a statistics log of version "
+                        + VERSION);
+            final List<Statistics> list = new ArrayList<Statistics>();
+            while (bytes.hasRemaining()) {
+                final Statistics statistics = new Statistics();
+                statistics.generation = bytes.getInt();
+                statistics.innovation = bytes.getInt();
+                statistics.maxFitness = bytes.getDouble();
+                statistics.meanFitness = bytes.getDouble();
+                statistics.medianFitness = bytes.getDouble();
+                statistics.meanGenes = bytes.getDouble();
+                statistics.evaluateNanos = bytes.getLong();
+                statistics.breedNanos = bytes.getLong();
+                statistics.speciesSizes = new int[bytes.getInt()];
+                for (int i = 0; i < statistics.speciesSizes.length; ++i)
+                    statistics.speciesSizes[i] = bytes.getInt();
+                list.add(statistics);
+            }
+            return list;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException(file + " is cut short", e);
+        }
+    }
+}
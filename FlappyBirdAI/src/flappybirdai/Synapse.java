@@ -1,6 +1,7 @@
 package flappybirdai;
 
-//Describes the node that is the same as another, so that it can keep track of it
+//Describes the node that is the same as another, so that it can keep track of it.
+//Genomes keep their genes in arrays; this is one gene on its own
 public class Synapse {
     public int input  = 0;
     public int  output  = 0;
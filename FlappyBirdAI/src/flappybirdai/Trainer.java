@@ -0,0 +1,199 @@
+package flappybirdai;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+Runs the training without a window: plays each generation as fast as the CPU
+allows and prints a line per generation with the ticks per second it reached.
+No AWT class is loaded, so it runs on machines without a display.
+
+  --generations N  stop after N generations (default: run until killed)
+  --max-ticks N    end a generation after N ticks (default: no limit)
+  --seed N         seed the pool and the tubes, for repeatable runs
+  --threads N      play and speciate each generation on N threads (default: 1)
+  --islands N      evolve N populations on a thread each, trading their best
+                   genomes, and report the generations per second of each
+  --migration-interval K
+                   generations between two migrations (default: 10)
+  --migrants M     genomes sent by an island at each migration (default: 2)
+  --generate-after N
+                   run a network as generated code once it has been
+                   evaluated on its own N times (default: never)
+  --fast-activation
+                   interpolate the sigmoid in a table, within 1e-5 of
+                   Math.exp, instead of computing it
+  --single-precision
+                   evaluate the networks with float weights and values
+  --decision-cache N
+                   cache up to N decisions of every network without loops
+                   that has a topology of its own, and report the hit rate
+                   and memory of the caches (default: none). This slows
+                   training at the network sizes evolved here, see
+                   Simulation.decisionCache. Not with --single-precision
+  --quantum Q      step the cached inputs are rounded to (default: 1/1024)
+  --checkpoint FILE
+                   save the run to FILE every few generations and at the
+                   end, in the background (not with --islands)
+  --checkpoint-interval K
+                   generations between two checkpoints (default: 10)
+  --resume FILE    go on with the run saved in FILE, where it stopped
+  --stats FILE     log the statistics of every generation to FILE as CSV,
+                   from a thread of its own (not with --islands)
+  --stats-binary FILE
+                   log them to FILE in binary, see StatisticsLog
+*/
+public class Trainer {
+
+    public static void main(final String[] args) throws InterruptedException,
+            IOException {
+        int generations = 0;
+        int islands = 0;
+        int interval = 10;
+        int migrants = 2;
+        long seed = new java.util.Random().nextLong();
+        boolean seeded = false;
+        File checkpointFile = null;
+        int checkpointInterval = 10;
+        File resume = null;
+        File statsFile = null;
+        File statsBinary = null;
+        final Simulation simulation = new Simulation();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--generations"))
+                generations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--max-ticks"))
+                simulation.maxTicks = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+                seeded = true;
+            } else if (args[i].equals("--threads")) {
+                simulation.threads = Integer.parseInt(args[++i]);
+                simulation.pool.threads = simulation.threads;
+            }
+            else if (args[i].equals("--islands"))
+                islands = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--migration-interval"))
+                interval = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--migrants"))
+                migrants = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--generate-after"))
+                simulation.pool.compileAfter = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--fast-activation"))
+                simulation.pool.fastActivation = true;
+            else if (args[i].equals("--single-precision"))
+                simulation.singlePrecision = true;
+            else if (args[i].equals("--decision-cache"))
+                simulation.decisionCache = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--quantum"))
+                simulation.quantum = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--checkpoint"))
+                checkpointFile = new File(args[++i]);
+            else if (args[i].equals("--checkpoint-interval"))
+                checkpointInterval = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--resume"))
+                resume = new File(args[++i]);
+            else if (args[i].equals("--stats"))
+                statsFile = new File(args[++i]);
+            else if (args[i].equals("--stats-binary"))
+                statsBinary = new File(args[++i]);
+            else {
+                System.err.println("usage: Trainer [--generations N] [--max-ticks N] [--seed N] [--threads N]");
+                System.err.println("               [--islands N] [--migration-interval K] [--migrants M]");
+                System.err.println("               [--generate-after N] [--fast-activation]");
+                System.err.println("               [--single-precision] [--decision-cache N] [--quantum Q]");
+                System.err.println("               [--checkpoint FILE] [--checkpoint-interval K] [--resume FILE]");
+                System.err.println("               [--stats FILE] [--stats-binary FILE]");
+                System.exit(2);
+            }
+        }
+
+        if (simulation.singlePrecision && simulation.decisionCache > 0) {
+            System.err.println("--decision-cache needs double precision, not --single-precision");
+            System.exit(2);
+        }
+
+        if (islands > 0) {
+            evolveIslands(islands, generations == 0 ? 100 : generations,
+                    interval, migrants, seed, simulation.maxTicks);
+            return;
+        }
+
+        if (seeded) {
+            simulation.pool.rnd.setSeed(seed);
+            simulation.seed = seed;
+        }
+
+        if (resume != null) {
+            Checkpoint.load(resume, simulation);
+            System.out.printf("resumed at generation %d from %s%n",
+                    simulation.pool.generation, resume);
+        } else
+            simulation.pool.initializePool();
+        final Checkpoint checkpoint = checkpointFile == null ? null
+                : new Checkpoint(checkpointFile);
+        final StatisticsLog log = statsFile == null && statsBinary == null ? null
+                : new StatisticsLog(statsFile, statsBinary);
+        while (generations == 0 || simulation.pool.generation < generations) {
+            final int generation = simulation.pool.generation;
+            final long start = System.nanoTime();
+            simulation.evaluateGeneration();
+            final long elapsed = System.nanoTime() - start;
+            System.out.printf("generation %d: %d ticks, max fitness %.1f, %.0f ticks/s%n",
+                    generation, simulation.ticks, simulation.pool.maxFitness,
+                    simulation.ticks * 1e9 / elapsed);
+            final Statistics statistics = log == null ? null
+                    : log.snapshot(simulation.pool, elapsed);
+            final long bred = System.nanoTime();
+            simulation.pool.newGeneration();
+            if (log != null) {
+                statistics.breedNanos = System.nanoTime() - bred;
+                log.offer(statistics);
+            }
+            if (checkpoint != null
+                    && simulation.pool.generation % checkpointInterval == 0)
+                checkpoint.save(simulation);
+        }
+        if (checkpoint != null) {
+            checkpoint.finish();
+            checkpoint.save(simulation);
+            checkpoint.finish();
+        }
+        if (log != null) {
+            log.close();
+            if (log.dropped > 0)
+                System.err.printf("statistics of %d generations dropped%n",
+                        log.dropped);
+        }
+        final long hits = simulation.pool.networkHits.get();
+        final long misses = simulation.pool.networkMisses.get();
+        System.out.printf("networks: %d reused, %d compiled (%.1f%% reused)%n",
+                hits, misses, 100.0 * hits / Math.max(1, hits + misses));
+        if (simulation.decisionCache > 0)
+            System.out.printf("decision caches: %d hits, %d misses (%.1f%% hits), at most %.1f KB in a generation%n",
+                    simulation.decisionHits, simulation.decisionMisses,
+                    100.0 * simulation.decisionHits
+                            / Math.max(1, simulation.decisionHits
+                                    + simulation.decisionMisses),
+                    simulation.decisionBytes / 1024.0);
+    }
+
+    //Evolves the islands and prints the generations per second each reached
+    private static void evolveIslands(final int count, final int generations,
+            final int interval, final int migrants, final long seed,
+            final int maxTicks) throws InterruptedException {
+        final Islands islands = new Islands(count, seed, maxTicks);
+        islands.interval = interval;
+        islands.migrants = migrants;
+        final long start = System.nanoTime();
+        islands.run(generations);
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        for (int i = 0; i < islands.size(); ++i)
+            System.out.printf("island %d: %d generations, max fitness %.1f, %.1f generations/s%n",
+                    i, generations, islands.get(i).pool.maxFitness,
+                    generations / islands.seconds(i));
+        System.out.printf("all islands: %d generations in %.1f s, %.1f generations/s%n",
+                count * generations, elapsed, count * generations / elapsed);
+    }
+}
@@ -0,0 +1,24 @@
+package flappybirdai;
+
+//The tube obstacles
+class Tube {
+    
+    //Tube's coordinates
+    double height;        
+    double position;
+    //Determines if the bird has passed the tube
+    boolean passed;
+
+    //Initializes the tube by setting its height, and making its position at
+    //the rightmost part of the screen when created
+    Tube(final int height) {
+        reset(height);
+    }
+
+    //Puts a tube that went off screen back at the rightmost part of the screen
+    void reset(final int height) {
+        this.height = height;
+        position = Simulation.WIDTH;
+        passed = false;
+    }
+}